@@ -0,0 +1,198 @@
+package com.stephenfox.scythe;
+
+import com.stephenfox.scythe.annotation.Option;
+
+import java.util.function.Consumer;
+
+/**
+ * Scans the command line arguments a character at a time, matching each token against the option
+ * index of a {@link Schema} in a single pass. Besides the long form {@code --name value} the
+ * following compact forms are understood:
+ *
+ * <ul>
+ *   <li>{@code --name=value}
+ *   <li>{@code -abc} for clustered single character flags, equivalent to {@code -a -b -c}
+ *   <li>{@code -p8080} for a single character option with an attached value
+ * </ul>
+ *
+ * Names without a leading dash, such as {@code port}, are only matched exactly. Tokens that do not
+ * match any option are skipped. Given an {@link OptionTrie}, long names may also be abbreviated to
+ * a unique prefix and names matched regardless of case, as the trie was built. Each option name
+ * matched can be reported as it is found, for example to count how often each name is used.
+ *
+ * @author Stephen Fox.
+ */
+final class ArgumentScanner {
+
+  private ArgumentScanner() {}
+
+  /**
+   * Scan the command line arguments for the values of each option in the schema.
+   *
+   * @param args The command line arguments.
+   * @param schema The schema of the options to scan for.
+   * @return The raw values found for each slot of the schema.
+   */
+  static RawValues scan(String[] args, Schema schema) {
+    return scan(args, schema, null, false, null);
+  }
+
+  /**
+   * Scan the command line arguments for the values of each option in the schema, matching tokens
+   * that are not an exact name against a trie of the names.
+   *
+   * @param args The command line arguments.
+   * @param schema The schema of the options to scan for.
+   * @param trie The trie of option names, or null to only match exact names.
+   * @param abbreviations Whether long names may be abbreviated to a unique prefix.
+   * @param names Told each name or alias matched, as declared, or null. An abbreviated name or one
+   *     in a different case is reported as the name of its option.
+   * @return The raw values found for each slot of the schema.
+   * @throws IllegalArgumentException If an abbreviation matches more than one option.
+   */
+  static RawValues scan(
+      String[] args,
+      Schema schema,
+      OptionTrie trie,
+      boolean abbreviations,
+      Consumer<String> names) {
+    final RawValues values = new RawValues(schema.options.length);
+
+    for (int i = 0; i < args.length; i++) {
+      final String token = args[i];
+      final int length = token.length();
+      if (length < 2 || token.charAt(0) != '-') {
+        // Only names without a leading dash, such as `port`, can match a token like this.
+        if (schema.hasPlainNames && length > 0) {
+          final int slot = schema.slotOf(token, 0, length);
+          if (slot >= 0) {
+            if (names != null) {
+              names.accept(token);
+            }
+            i = addValue(args, i, schema.options[slot], slot, values);
+          }
+        }
+        continue;
+      }
+
+      final int slot = slotOf(token, length, schema, trie, abbreviations);
+      if (slot >= 0) {
+        if (names != null) {
+          names.accept(nameOf(token, length, schema, slot));
+        }
+        i = addValue(args, i, schema.options[slot], slot, values);
+      } else if (token.charAt(1) == '-') {
+        scanLong(token, schema, values, trie, abbreviations, names);
+      } else if (length > 2) {
+        i = scanShort(args, i, schema, values, names);
+      }
+    }
+
+    return values;
+  }
+
+  /**
+   * Look up the slot of the option named by the start of the token, trying the trie if there is
+   * one and no name matches exactly.
+   */
+  private static int slotOf(
+      String token, int to, Schema schema, OptionTrie trie, boolean abbreviations) {
+    int slot = schema.slotOf(token, 0, to);
+    if (slot < 0 && trie != null) {
+      // Only long names are abbreviated, and at least one character after the dashes is needed.
+      slot = trie.slotOf(token, to, abbreviations && to > 2 && token.charAt(1) == '-');
+      if (slot == OptionTrie.AMBIGUOUS) {
+        throw new IllegalArgumentException(trie.ambiguity(token, to));
+      }
+    }
+    return slot;
+  }
+
+  /** @return The name the start of the token matched exactly, otherwise the option name. */
+  private static String nameOf(String token, int to, Schema schema, int slot) {
+    if (schema.slotOf(token, 0, to) == slot) {
+      return to == token.length() ? token : token.substring(0, to);
+    }
+    return schema.options[slot].name();
+  }
+
+  /** Handles {@code --name=value}. */
+  private static void scanLong(
+      String token,
+      Schema schema,
+      RawValues values,
+      OptionTrie trie,
+      boolean abbreviations,
+      Consumer<String> names) {
+    final int equals = token.indexOf('=', 2);
+    if (equals < 0) {
+      return;
+    }
+
+    final int slot = slotOf(token, equals, schema, trie, abbreviations);
+    if (slot >= 0) {
+      if (names != null) {
+        names.accept(nameOf(token, equals, schema, slot));
+      }
+      values.add(slot, token.substring(equals + 1));
+    }
+  }
+
+  /** Handles {@code -abc} and {@code -p8080}, returning the index of the last token consumed. */
+  private static int scanShort(
+      String[] args, int i, Schema schema, RawValues values, Consumer<String> names) {
+    final String token = args[i];
+    if (!isCluster(token, schema)) {
+      return i;
+    }
+
+    for (int j = 1; j < token.length(); j++) {
+      final int slot = schema.shortSlotOf(token.charAt(j));
+      final Option option = schema.options[slot];
+      if (names != null) {
+        names.accept("-" + token.charAt(j));
+      }
+      if (option.isFlag()) {
+        values.add(slot, "true");
+      } else if (j + 1 < token.length()) {
+        // The rest of the token is the value of this option.
+        values.add(slot, token.substring(j + 1));
+        return i;
+      } else {
+        return addValue(args, i, option, slot, values);
+      }
+    }
+    return i;
+  }
+
+  /**
+   * Check the token is made up of known single character options, where all but the last option
+   * with a value are flags. The token is only consumed if every character before an attached value
+   * is known, so an unknown token is never half applied.
+   */
+  private static boolean isCluster(String token, Schema schema) {
+    for (int j = 1; j < token.length(); j++) {
+      final int slot = schema.shortSlotOf(token.charAt(j));
+      if (slot < 0) {
+        return false;
+      }
+      if (!schema.options[slot].isFlag()) {
+        return true;
+      }
+    }
+    return true;
+  }
+
+  private static int addValue(String[] args, int i, Option option, int slot, RawValues values) {
+    if (option.isFlag()) {
+      values.add(slot, "true");
+      return i;
+    }
+
+    if (i + 2 > args.length) {
+      throw new IllegalArgumentException("Option values must appear after the option name");
+    }
+    values.add(slot, args[i + 1]);
+    return i + 1;
+  }
+}
@@ -0,0 +1,388 @@
+package com.stephenfox.scythe;
+
+import com.stephenfox.scythe.annotation.Option;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A configuration file option values can be read from. Two formats are supported, chosen by the
+ * file extension:
+ *
+ * <ul>
+ *   <li>{@code .json} - a JSON object whose members are option keys. Values may be strings,
+ *       numbers, booleans or arrays of those, arrays give each value of a {@code multiple} option
+ *       or the values of an {@code nargs} option. Members with any other value are skipped.
+ *   <li>anything else - a properties file of {@code key=value} or {@code key: value} lines, with
+ *       {@code #} and {@code !} comments. Escapes and line continuations are not supported.
+ * </ul>
+ *
+ * The key of an option is its name or any of its aliases without the leading dashes, for example
+ * `port` for `--port`. The file is scanned in place for the keys of the schema, only the values of
+ * keys that belong to an option are decoded. Small files are read onto the heap, larger files are
+ * memory mapped, and the mapping is only released once the buffer is garbage collected.
+ *
+ * @author Stephen Fox.
+ */
+final class ConfigSource {
+
+  /** Files up to this size are read onto the heap rather than memory mapped. */
+  private static final int HEAP_READ_LIMIT = 64 * 1024;
+
+  final Path path;
+  private final boolean json;
+
+  ConfigSource(Path path) {
+    this.path = path;
+    this.json = path.toString().endsWith(".json");
+  }
+
+  /**
+   * Scan the file for the options of the schema, adding values for slots that are still empty.
+   *
+   * @param schema The schema of the options to scan for.
+   * @param values The slot table to fill.
+   */
+  void fill(Schema schema, RawValues values) {
+    final ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size <= HEAP_READ_LIMIT) {
+        buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+          // Read until full or the end of the file.
+        }
+        // Called through Buffer as the ByteBuffer overrides only exist from Java 9.
+        ((Buffer) buffer).flip();
+      } else {
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read configuration file " + path, e);
+    }
+
+    // Values are only taken for slots empty before this file was scanned, so a key repeated
+    // within the file can still add each value of a multiple option.
+    final boolean[] fillable = new boolean[schema.options.length];
+    for (int slot = 0; slot < fillable.length; slot++) {
+      fillable[slot] = values.count(slot) == 0;
+    }
+
+    if (json) {
+      new JsonScanner(buffer, schema, values, fillable).scan();
+    } else {
+      scanProperties(buffer, schema, values, fillable);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return path.toString();
+  }
+
+  private void scanProperties(
+      ByteBuffer buffer, Schema schema, RawValues values, boolean[] fillable) {
+    final int limit = buffer.limit();
+    int i = 0;
+    while (i < limit) {
+      i = skipWhitespace(buffer, i, limit);
+      if (i >= limit) {
+        break;
+      }
+
+      final byte first = buffer.get(i);
+      if (first == '\n' || first == '\r' || first == '#' || first == '!') {
+        i = endOfLine(buffer, i, limit) + 1;
+        continue;
+      }
+
+      final int keyStart = i;
+      while (i < limit && !isKeyTerminator(buffer.get(i))) {
+        i++;
+      }
+      final int slot = schema.configSlotOf(buffer, keyStart, i);
+      final int end = endOfLine(buffer, i, limit);
+      if (slot >= 0 && fillable[slot]) {
+        i = skipWhitespace(buffer, i, end);
+        if (i < end && (buffer.get(i) == '=' || buffer.get(i) == ':')) {
+          i = skipWhitespace(buffer, i + 1, end);
+        }
+        int valueEnd = end;
+        while (valueEnd > i && isWhitespace(buffer.get(valueEnd - 1))) {
+          valueEnd--;
+        }
+        values.add(slot, decode(buffer, i, valueEnd));
+      }
+      i = end + 1;
+    }
+  }
+
+  private static boolean isKeyTerminator(byte b) {
+    return b == '=' || b == ':' || isWhitespace(b) || b == '\n' || b == '\r';
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\f';
+  }
+
+  private static int skipWhitespace(ByteBuffer buffer, int i, int limit) {
+    while (i < limit && isWhitespace(buffer.get(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private static int endOfLine(ByteBuffer buffer, int i, int limit) {
+    while (i < limit && buffer.get(i) != '\n' && buffer.get(i) != '\r') {
+      i++;
+    }
+    return i;
+  }
+
+  private static String decode(ByteBuffer buffer, int from, int to) {
+    final ByteBuffer region = buffer.duplicate();
+    ((Buffer) region).limit(to).position(from);
+    return StandardCharsets.UTF_8.decode(region).toString();
+  }
+
+  /**
+   * Scans the members of a top level JSON object. Values belonging to unknown keys are skipped
+   * without being decoded.
+   */
+  private final class JsonScanner {
+    private final ByteBuffer buffer;
+    private final Schema schema;
+    private final RawValues values;
+    private final boolean[] fillable;
+    private final int limit;
+    private int i;
+
+    JsonScanner(ByteBuffer buffer, Schema schema, RawValues values, boolean[] fillable) {
+      this.buffer = buffer;
+      this.schema = schema;
+      this.values = values;
+      this.fillable = fillable;
+      this.limit = buffer.limit();
+    }
+
+    void scan() {
+      expect('{');
+      if (peek() == '}') {
+        return;
+      }
+
+      while (true) {
+        expect('"');
+        final int keyStart = i;
+        skipStringBody();
+        final int slot = schema.configSlotOf(buffer, keyStart, i - 1);
+        expect(':');
+
+        if (slot >= 0 && fillable[slot]) {
+          readValue(schema.options[slot], slot);
+        } else {
+          skipValue();
+        }
+
+        if (peek() == ',') {
+          i++;
+        } else {
+          expect('}');
+          return;
+        }
+      }
+    }
+
+    private void readValue(Option option, int slot) {
+      if (peek() != '[') {
+        final String value = readScalar();
+        if (value != null) {
+          values.add(slot, value);
+        }
+        return;
+      }
+
+      i++;
+      final StringBuilder nargs = option.multiple() ? null : new StringBuilder();
+      if (peek() != ']') {
+        while (true) {
+          final String value = readScalar();
+          if (value != null) {
+            if (nargs == null) {
+              values.add(slot, value);
+            } else {
+              if (nargs.length() > 0) {
+                nargs.append(' ');
+              }
+              nargs.append(value);
+            }
+          }
+          if (peek() == ',') {
+            i++;
+          } else {
+            break;
+          }
+        }
+      }
+      expect(']');
+      if (nargs != null) {
+        values.add(slot, nargs.toString());
+      }
+    }
+
+    /** @return The text of a string, number or boolean, or null for null and nested values. */
+    private String readScalar() {
+      final byte b = peek();
+      if (b == '"') {
+        i++;
+        return readStringBody();
+      } else if (b == '{' || b == '[') {
+        skipValue();
+        return null;
+      }
+
+      final int start = i;
+      while (i < limit && !isStructural(buffer.get(i))) {
+        i++;
+      }
+      int end = i;
+      while (end > start && isJsonWhitespace(buffer.get(end - 1))) {
+        end--;
+      }
+      final String text = decode(buffer, start, end);
+      return text.equals("null") ? null : text;
+    }
+
+    private String readStringBody() {
+      final int start = i;
+      while (i < limit) {
+        final byte b = buffer.get(i);
+        if (b == '"') {
+          final String value = decode(buffer, start, i);
+          i++;
+          return value;
+        } else if (b == '\\') {
+          // Only strings with escapes are copied out and unescaped.
+          i = start;
+          return readEscapedStringBody();
+        }
+        i++;
+      }
+      throw error("Unterminated string");
+    }
+
+    private String readEscapedStringBody() {
+      final int start = i;
+      skipStringBody();
+      final String raw = decode(buffer, start, i - 1);
+      final StringBuilder builder = new StringBuilder(raw.length());
+      for (int j = 0; j < raw.length(); j++) {
+        final char c = raw.charAt(j);
+        if (c != '\\') {
+          builder.append(c);
+          continue;
+        }
+        final char escaped = raw.charAt(++j);
+        switch (escaped) {
+          case 'b':
+            builder.append('\b');
+            break;
+          case 'f':
+            builder.append('\f');
+            break;
+          case 'n':
+            builder.append('\n');
+            break;
+          case 'r':
+            builder.append('\r');
+            break;
+          case 't':
+            builder.append('\t');
+            break;
+          case 'u':
+            builder.append((char) Integer.parseInt(raw.substring(j + 1, j + 5), 16));
+            j += 4;
+            break;
+          default:
+            builder.append(escaped);
+        }
+      }
+      return builder.toString();
+    }
+
+    private void skipStringBody() {
+      while (i < limit) {
+        final byte b = buffer.get(i++);
+        if (b == '\\') {
+          i++;
+        } else if (b == '"') {
+          return;
+        }
+      }
+      throw error("Unterminated string");
+    }
+
+    private void skipValue() {
+      final byte b = peek();
+      if (b == '"') {
+        i++;
+        skipStringBody();
+        return;
+      } else if (b != '{' && b != '[') {
+        while (i < limit && !isStructural(buffer.get(i))) {
+          i++;
+        }
+        return;
+      }
+
+      int depth = 0;
+      while (i < limit) {
+        final byte c = buffer.get(i++);
+        if (c == '"') {
+          skipStringBody();
+        } else if (c == '{' || c == '[') {
+          depth++;
+        } else if ((c == '}' || c == ']') && --depth == 0) {
+          return;
+        }
+      }
+      throw error("Unterminated value");
+    }
+
+    private byte peek() {
+      while (i < limit && isJsonWhitespace(buffer.get(i))) {
+        i++;
+      }
+      if (i >= limit) {
+        throw error("Unexpected end of file");
+      }
+      return buffer.get(i);
+    }
+
+    private void expect(char c) {
+      if (peek() != c) {
+        throw error("Expected '" + c + "'");
+      }
+      i++;
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(
+          message + " at offset " + i + " of configuration file " + path);
+    }
+  }
+
+  private static boolean isStructural(byte b) {
+    return b == ',' || b == '}' || b == ']';
+  }
+
+  private static boolean isJsonWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+  }
+}
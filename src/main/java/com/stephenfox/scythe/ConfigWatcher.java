@@ -0,0 +1,171 @@
+package com.stephenfox.scythe;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Watches the configuration files of a {@link Scythe} parser and publishes a new result each time
+ * they change. The result is an unmodifiable mapping of option names and aliases to values, in
+ * the same form as {@link Scythe#parse()}, with unmodifiable lists and sets of values. Only options
+ * whose raw values changed are parsed again, all others keep the value from the previous result.
+ * Each result has its own views of lists and sets, which are never shared with a subscriber.
+ *
+ * <p>If reading or parsing a changed file fails, for example because it is part way through being
+ * written, the previous result is kept until the next change.
+ *
+ * @author Stephen Fox.
+ */
+public final class ConfigWatcher implements Closeable {
+
+  private final Scythe scythe;
+  private final Schema schema;
+  private final WatchService watchService;
+  private final Map<Path, Set<Path>> watchedFiles = new HashMap<>();
+  private final List<Consumer<Map<String, Object>>> subscribers = new CopyOnWriteArrayList<>();
+  private final AtomicReference<Map<String, Object>> current = new AtomicReference<>();
+  private RawValues rawValues;
+  private Object[] values;
+
+  ConfigWatcher(Scythe scythe, Schema schema, List<Path> paths) throws IOException {
+    this.scythe = scythe;
+    this.schema = schema;
+
+    this.rawValues = scythe.readRawValues(schema);
+    this.values = new Object[schema.options.length];
+    for (int slot = 0; slot < values.length; slot++) {
+      values[slot] = scythe.parseOption(schema, rawValues, slot);
+    }
+    current.set(publishable(values));
+
+    this.watchService = paths.isEmpty() ? null : paths.get(0).getFileSystem().newWatchService();
+    for (Path path : paths) {
+      final Path absolute = path.toAbsolutePath();
+      final Path directory = absolute.getParent();
+      if (!watchedFiles.containsKey(directory)) {
+        directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+        watchedFiles.put(directory, new HashSet<>());
+      }
+      watchedFiles.get(directory).add(absolute.getFileName());
+    }
+
+    if (watchService != null) {
+      final Thread thread = new Thread(this::watch, "scythe-config-watcher");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /** @return The most recently published result. */
+  public Map<String, Object> current() {
+    return current.get();
+  }
+
+  /**
+   * Subscribe to new results. The subscriber is called on the watching thread each time a result is
+   * published, it is not called with the current result.
+   *
+   * @param subscriber The subscriber.
+   * @return This instance.
+   */
+  public ConfigWatcher subscribe(Consumer<Map<String, Object>> subscriber) {
+    subscribers.add(subscriber);
+    return this;
+  }
+
+  /**
+   * Read the configuration files again and publish a new result if any option changed. This is
+   * called whenever a watched file changes, it can also be called directly, for example on a
+   * signal.
+   *
+   * @return True if a new result was published.
+   * @throws RuntimeException If the files cannot be read or parsed, the previous result is kept.
+   */
+  public synchronized boolean reload() {
+    final RawValues newRawValues = scythe.readRawValues(schema);
+    Object[] newValues = null;
+    for (int slot = 0; slot < values.length; slot++) {
+      if (!newRawValues.sameValues(slot, rawValues)) {
+        if (newValues == null) {
+          newValues = values.clone();
+        }
+        newValues[slot] = scythe.parseOption(schema, newRawValues, slot);
+      }
+    }
+
+    rawValues = newRawValues;
+    if (newValues == null) {
+      return false;
+    }
+
+    values = newValues;
+    final Map<String, Object> result = publishable(values);
+    current.set(result);
+    for (Consumer<Map<String, Object>> subscriber : subscribers) {
+      subscriber.accept(result);
+    }
+    return true;
+  }
+
+  /** @return An unmodifiable result of the values, with new views of any lists and sets. */
+  private Map<String, Object> publishable(Object[] values) {
+    final Object[] published = new Object[values.length];
+    for (int slot = 0; slot < values.length; slot++) {
+      published[slot] = Scythe.unmodifiable(values[slot]);
+    }
+    return Collections.unmodifiableMap(Scythe.toMap(schema, published));
+  }
+
+  /** Stop watching the configuration files. */
+  @Override
+  public void close() throws IOException {
+    if (watchService != null) {
+      watchService.close();
+    }
+  }
+
+  private void watch() {
+    while (true) {
+      final WatchKey key;
+      try {
+        key = watchService.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+
+      final Set<Path> files = watchedFiles.get((Path) key.watchable());
+      boolean changed = false;
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == OVERFLOW || files != null && files.contains((Path) event.context())) {
+          changed = true;
+        }
+      }
+      key.reset();
+
+      if (changed) {
+        try {
+          reload();
+        } catch (RuntimeException e) {
+          // Keep the previous result until the next change.
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package com.stephenfox.scythe;
+
+import com.stephenfox.scythe.annotation.Constraint;
+import com.stephenfox.scythe.annotation.Option;
+
+import java.util.List;
+
+/**
+ * The {@link Constraint}s of a schema compiled to bit masks over the option slots. Checking the
+ * options given in a parse takes a few word wide operations per constraint.
+ *
+ * @author Stephen Fox.
+ */
+final class ConstraintSet {
+
+  static final ConstraintSet EMPTY = new ConstraintSet(new Constraint[0], new long[0][], 0);
+
+  private final Constraint[] constraints;
+  // The slots each constraint applies to, for REQUIRES this excludes the first option.
+  private final long[][] masks;
+  // For REQUIRES the slot of the first option, otherwise -1.
+  private final int[] triggers;
+  private final int words;
+
+  private ConstraintSet(Constraint[] constraints, long[][] masks, int words) {
+    this.constraints = constraints;
+    this.masks = masks;
+    this.triggers = new int[constraints.length];
+    this.words = words;
+  }
+
+  /**
+   * Compile the constraints declared alongside the options of a schema.
+   *
+   * @param constraints The declared constraints.
+   * @param schema The schema of the options the constraints refer to.
+   * @return The compiled constraints.
+   * @throws IllegalArgumentException If a constraint refers to an option not in the schema.
+   */
+  static ConstraintSet compile(List<Constraint> constraints, Schema schema) {
+    if (constraints.isEmpty()) {
+      return EMPTY;
+    }
+
+    final int words = (schema.options.length + 63) >>> 6;
+    final ConstraintSet set =
+        new ConstraintSet(
+            constraints.toArray(new Constraint[0]), new long[constraints.size()][words], words);
+    for (int i = 0; i < set.constraints.length; i++) {
+      final Constraint constraint = set.constraints[i];
+      if (constraint.options().length == 0) {
+        throw new IllegalArgumentException(constraint.kind() + " constraint has no options");
+      }
+      set.triggers[i] = -1;
+      for (int j = 0; j < constraint.options().length; j++) {
+        final String name = constraint.options()[j];
+        final int slot = schema.slotOf(name, 0, name.length());
+        if (slot < 0) {
+          throw new IllegalArgumentException(
+              "Unknown option " + name + " in " + constraint.kind() + " constraint");
+        }
+        if (constraint.kind() == Constraint.Kind.REQUIRES && j == 0) {
+          set.triggers[i] = slot;
+        } else {
+          set.masks[i][slot >>> 6] |= 1L << slot;
+        }
+      }
+    }
+    return set;
+  }
+
+  /**
+   * Check the options given in a parse against every constraint.
+   *
+   * @param schema The schema the constraints were compiled for.
+   * @param rawValues The raw values of the parse.
+   * @throws ConstraintViolationException If any constraint is not met.
+   */
+  void check(Schema schema, RawValues rawValues) {
+    if (constraints.length == 0) {
+      return;
+    }
+
+    final long[] given = new long[words];
+    for (int slot = 0; slot < schema.options.length; slot++) {
+      if (isGiven(schema.options[slot], rawValues, slot)) {
+        given[slot >>> 6] |= 1L << slot;
+      }
+    }
+
+    for (int i = 0; i < constraints.length; i++) {
+      final long[] mask = masks[i];
+      int count = 0;
+      boolean all = true;
+      for (int w = 0; w < words; w++) {
+        final long bits = given[w] & mask[w];
+        count += Long.bitCount(bits);
+        all &= bits == mask[w];
+      }
+
+      final boolean violated;
+      switch (constraints[i].kind()) {
+        case GROUP:
+          violated = count > 0 && !all;
+          break;
+        case MUTUALLY_EXCLUSIVE:
+          violated = count > 1;
+          break;
+        case AT_LEAST_ONE:
+          violated = count == 0;
+          break;
+        case REQUIRES:
+          violated = (given[triggers[i] >>> 6] & 1L << triggers[i]) != 0 && !all;
+          break;
+        default:
+          throw new IllegalStateException("Unknown constraint " + constraints[i].kind());
+      }
+
+      if (violated) {
+        throw new ConstraintViolationException(describe(constraints[i]));
+      }
+    }
+  }
+
+  private static boolean isGiven(Option option, RawValues rawValues, int slot) {
+    if (rawValues.count(slot) == 0) {
+      return false;
+    }
+    return !option.isFlag() || Boolean.parseBoolean(rawValues.first(slot));
+  }
+
+  private static String describe(Constraint constraint) {
+    final String[] options = constraint.options();
+    switch (constraint.kind()) {
+      case GROUP:
+        return "Options " + String.join(", ", options) + " must be given together";
+      case MUTUALLY_EXCLUSIVE:
+        return "Only one of " + String.join(", ", options) + " can be given";
+      case AT_LEAST_ONE:
+        return "At least one of " + String.join(", ", options) + " must be given";
+      default:
+        final String[] required = new String[options.length - 1];
+        System.arraycopy(options, 1, required, 0, required.length);
+        return "Option " + options[0] + " requires " + String.join(", ", required);
+    }
+  }
+}
@@ -0,0 +1,13 @@
+package com.stephenfox.scythe;
+
+/**
+ * Exception class for options given in a combination a {@link
+ * com.stephenfox.scythe.annotation.Constraint} does not allow.
+ *
+ * @author Stephen Fox.
+ */
+public class ConstraintViolationException extends RuntimeException {
+  ConstraintViolationException(String message) {
+    super(message);
+  }
+}
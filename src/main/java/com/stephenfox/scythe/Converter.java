@@ -0,0 +1,18 @@
+package com.stephenfox.scythe;
+
+/**
+ * Converts the string value of an option to the option type.
+ *
+ * @author Stephen Fox.
+ */
+@FunctionalInterface
+interface Converter {
+
+  /**
+   * Convert a value.
+   *
+   * @param value The string value from the command line, environment or a configuration file.
+   * @return The converted value.
+   */
+  Object convert(String value);
+}
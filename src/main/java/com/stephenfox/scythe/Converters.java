@@ -0,0 +1,140 @@
+package com.stephenfox.scythe;
+
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Factories for the {@link Converter} of each supported option type.
+ *
+ * @author Stephen Fox.
+ */
+final class Converters {
+
+  /** The most distinct values an interning converter holds before it stops interning. */
+  static final int INTERN_LIMIT = 4096;
+
+  private Converters() {}
+
+  /**
+   * Get the converter for an option type. {@code String}, all {@code Number} subtypes, enums and
+   * the file types of {@link LazyResources} are supported, any other type must have a constructor
+   * taking a single {@code String}.
+   *
+   * @param type The option type.
+   * @return The converter for the type.
+   */
+  static Converter of(Class<?> type) {
+    if (type.equals(Byte.class)) {
+      return Byte::valueOf;
+    } else if (type.equals(Short.class)) {
+      return Short::valueOf;
+    } else if (type.equals(Integer.class)) {
+      return Integer::valueOf;
+    } else if (type.equals(Long.class)) {
+      return Long::valueOf;
+    } else if (type.equals(Float.class)) {
+      return Float::valueOf;
+    } else if (type.equals(Double.class)) {
+      return Double::valueOf;
+    } else if (Number.class.isAssignableFrom(type)) {
+      return value -> {
+        throw new IllegalArgumentException("Cannot parse " + type);
+      };
+    } else if (String.class.isAssignableFrom(type)) {
+      return value -> value;
+    } else if (type.equals(Path.class)) {
+      return LazyResources::path;
+    } else if (type.equals(ByteBuffer.class)) {
+      return LazyResources::map;
+    } else if (type.equals(InputStream.class)) {
+      return LazyResources::inputStream;
+    } else if (type.equals(ReadableByteChannel.class)) {
+      return LazyResources::channel;
+    } else if (type.isEnum()) {
+      return EnumConverter.of(type);
+    }
+    return new ConstructorConverter(type);
+  }
+
+  /**
+   * Check whether converting the same value to a type always gives an equal result. The file types
+   * of {@link LazyResources} do not, as they depend on the file and some hold it open.
+   *
+   * @param type The option type.
+   * @return True if the result of converting a value to the type can be reused.
+   */
+  static boolean isDeterministic(Class<?> type) {
+    return !type.equals(Path.class)
+        && !type.equals(ByteBuffer.class)
+        && !type.equals(InputStream.class)
+        && !type.equals(ReadableByteChannel.class);
+  }
+
+  /**
+   * Wrap a converter so each distinct value is converted once, repeats of a value share the
+   * instance converted first. Once {@link #INTERN_LIMIT} distinct values have been seen, further
+   * new values are converted without being remembered. The returned converter is meant to live for
+   * a single parse.
+   *
+   * @param converter The converter to wrap.
+   * @param concurrent Whether the returned converter is used from many threads at once.
+   * @return The interning converter.
+   */
+  static Converter interning(Converter converter, boolean concurrent) {
+    final Map<String, Object> interned = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
+    return value -> {
+      Object converted = interned.get(value);
+      if (converted == null) {
+        converted = converter.convert(value);
+        if (converted != null && interned.size() < INTERN_LIMIT) {
+          // Another thread may have converted the same value first, share its instance.
+          final Object previous = interned.putIfAbsent(value, converted);
+          if (previous != null) {
+            converted = previous;
+          }
+        }
+      }
+      return converted;
+    };
+  }
+
+  /**
+   * Converts values by calling the {@code String} constructor of the type. The constructor is
+   * looked up on first use, so a type without one only fails when a value is given.
+   */
+  private static final class ConstructorConverter implements Converter {
+    private final Class<?> type;
+    private volatile Constructor<?> constructor;
+
+    ConstructorConverter(Class<?> type) {
+      this.type = type;
+    }
+
+    @Override
+    public Object convert(String value) {
+      Constructor<?> constructor = this.constructor;
+      if (constructor == null) {
+        try {
+          constructor = type.getDeclaredConstructor(String.class);
+        } catch (NoSuchMethodException e) {
+          throw new RuntimeException(e);
+        }
+        constructor.setAccessible(true);
+        this.constructor = constructor;
+      }
+
+      try {
+        return constructor.newInstance(value);
+      } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package com.stephenfox.scythe;
+
+import com.stephenfox.scythe.annotation.Option;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Calls the {@link Option#defaultSupplier()} of options given no value. When a parse needs more
+ * than one supplier they run concurrently on a small shared pool of daemon threads, so the parse
+ * waits for the slowest supplier rather than all of them in turn. A supplier that itself parses
+ * options runs its own suppliers on its own thread, so the pool cannot deadlock on itself.
+ *
+ * @author Stephen Fox.
+ */
+final class DefaultSuppliers {
+
+  private DefaultSuppliers() {}
+
+  /** The pool, created on first use. */
+  private static final class Pool {
+    static final int THREADS =
+        Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    static final ExecutorService EXECUTOR = create();
+
+    private static ExecutorService create() {
+      final ThreadPoolExecutor executor =
+          new ThreadPoolExecutor(
+              THREADS,
+              THREADS,
+              30,
+              TimeUnit.SECONDS,
+              new LinkedBlockingQueue<>(),
+              runnable -> {
+                final Thread thread = new PoolThread(runnable);
+                thread.setDaemon(true);
+                return thread;
+              });
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+    }
+  }
+
+  private static final class PoolThread extends Thread {
+    PoolThread(Runnable runnable) {
+      super(runnable, "scythe-default-supplier");
+    }
+  }
+
+  /**
+   * Get the supplier class of each option, precomputed per schema.
+   *
+   * @param options The options of a schema.
+   * @return The supplier class of each slot, null for options without one, or null if no option
+   *     has one.
+   */
+  static Class<?>[] of(Option[] options) {
+    Class<?>[] suppliers = null;
+    for (int slot = 0; slot < options.length; slot++) {
+      if (options[slot].defaultSupplier() != Option.NoDefault.class) {
+        if (suppliers == null) {
+          suppliers = new Class<?>[options.length];
+        }
+        suppliers[slot] = options[slot].defaultSupplier();
+      }
+    }
+    return suppliers;
+  }
+
+  /**
+   * Call the supplier of a single option on the current thread.
+   *
+   * @param schema The schema of the option.
+   * @param slot The slot of the option, which must have a supplier.
+   * @return The supplied default value.
+   */
+  static Object get(Schema schema, int slot) {
+    final Supplier<?> supplier;
+    try {
+      final Constructor<?> constructor = schema.defaultSuppliers[slot].getDeclaredConstructor();
+      constructor.setAccessible(true);
+      supplier = (Supplier<?>) constructor.newInstance();
+    } catch (NoSuchMethodException | InstantiationException | IllegalAccessException e) {
+      throw new IllegalStateException(
+          "Unable to create default supplier of " + schema.options[slot].name(), e);
+    } catch (InvocationTargetException e) {
+      throw rethrow(schema, slot, e.getCause());
+    }
+    return supplier.get();
+  }
+
+  /**
+   * Get the default value of a single option, only calling its supplier if the parse has not
+   * already supplied it.
+   *
+   * @param schema The schema of the option.
+   * @param rawValues The raw values of the parse, which hold the values already supplied.
+   * @param slot The slot of the option, which must have a supplier.
+   * @return The supplied default value.
+   */
+  static Object get(Schema schema, RawValues rawValues, int slot) {
+    if (!rawValues.isSupplied(slot)) {
+      rawValues.supply(slot, get(schema, slot));
+    }
+    return rawValues.supplied(slot);
+  }
+
+  /**
+   * Call the supplier of every option without a raw value, concurrently if there are more than one.
+   * Values the parse has already supplied, for example to resolve a reference, are reused.
+   *
+   * @param schema The schema of the options, which has suppliers.
+   * @param rawValues The raw values of the parse.
+   * @param values Where the supplied default values are stored, by slot.
+   * @return Which slots were given a supplied value.
+   */
+  static boolean[] supply(Schema schema, RawValues rawValues, Object[] values) {
+    final boolean[] supplied = new boolean[values.length];
+    final List<Integer> slots = new ArrayList<>();
+    for (int slot = 0; slot < values.length; slot++) {
+      if (schema.defaultSuppliers[slot] != null && rawValues.count(slot) == 0) {
+        supplied[slot] = true;
+        if (rawValues.isSupplied(slot)) {
+          values[slot] = rawValues.supplied(slot);
+        } else {
+          slots.add(slot);
+        }
+      }
+    }
+
+    if (slots.size() < 2 || Thread.currentThread() instanceof PoolThread) {
+      for (int slot : slots) {
+        values[slot] = get(schema, rawValues, slot);
+      }
+      return supplied;
+    }
+
+    final List<Future<Object>> futures = new ArrayList<>(slots.size());
+    for (int slot : slots) {
+      futures.add(Pool.EXECUTOR.submit(() -> get(schema, slot)));
+    }
+    try {
+      for (int i = 0; i < slots.size(); i++) {
+        try {
+          values[slots.get(i)] = futures.get(i).get();
+          rawValues.supply(slots.get(i), values[slots.get(i)]);
+        } catch (ExecutionException e) {
+          throw rethrow(schema, slots.get(i), e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting for default values", e);
+    } finally {
+      for (Future<Object> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return supplied;
+  }
+
+  private static RuntimeException rethrow(Schema schema, int slot, Throwable cause) {
+    if (cause instanceof RuntimeException) {
+      return (RuntimeException) cause;
+    } else if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new IllegalStateException(
+        "Default supplier of " + schema.options[slot].name() + " failed", cause);
+  }
+}
@@ -0,0 +1,141 @@
+package com.stephenfox.scythe;
+
+import com.stephenfox.scythe.annotation.Alias;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts values to the constants of an enum type. Each type has a lookup table built once, of
+ * its constant names and {@link Alias}es both as declared and folded to lower case with {@code -}
+ * in place of {@code _}, so {@code FAST_PATH} can also be given as {@code fast-path}. A value
+ * matching a name exactly is preferred, a folded value matching more than one constant is an
+ * error, as is an alias that is the name of another constant.
+ *
+ * @author Stephen Fox.
+ */
+final class EnumConverter implements Converter {
+
+  private static final ClassValue<EnumConverter> CONVERTERS =
+      new ClassValue<EnumConverter>() {
+        @Override
+        protected EnumConverter computeValue(Class<?> type) {
+          return new EnumConverter(type);
+        }
+      };
+
+  // Marks a folded value shared by more than one constant.
+  private static final Object AMBIGUOUS = new Object();
+
+  private final Class<?> type;
+  private final Map<String, Object> exact = new HashMap<>();
+  private final Map<String, Object> folded = new HashMap<>();
+
+  private EnumConverter(Class<?> type) {
+    this.type = type;
+    // Every name is added before any alias, so an alias can never take the name of a constant.
+    for (Object constant : type.getEnumConstants()) {
+      add(((Enum<?>) constant).name(), constant);
+    }
+    for (Object constant : type.getEnumConstants()) {
+      final String name = ((Enum<?>) constant).name();
+      final Alias alias = aliasOf(type, name);
+      if (alias == null) {
+        continue;
+      }
+      for (String value : alias.value()) {
+        final Object named = exact.get(value);
+        if (named != null && named != constant && ((Enum<?>) named).name().equals(value)) {
+          throw new IllegalArgumentException(
+              "Alias "
+                  + value
+                  + " of "
+                  + type.getSimpleName()
+                  + "."
+                  + name
+                  + " is another constant");
+        }
+        add(value, constant);
+      }
+    }
+  }
+
+  /**
+   * Get the converter for an enum type, building its lookup table on first use.
+   *
+   * @param type The enum type.
+   * @return The converter.
+   */
+  static EnumConverter of(Class<?> type) {
+    return CONVERTERS.get(type);
+  }
+
+  @Override
+  public Object convert(String value) {
+    Object constant = exact.get(value);
+    if (constant == null) {
+      constant = folded.get(fold(value));
+    }
+
+    if (constant == AMBIGUOUS) {
+      throw new IllegalArgumentException(
+          "Ambiguous value " + value + " for " + type.getSimpleName());
+    } else if (constant == null) {
+      final List<String> names = new ArrayList<>();
+      for (Object c : type.getEnumConstants()) {
+        names.add(((Enum<?>) c).name());
+      }
+      throw new IllegalArgumentException(
+          "Unknown value "
+              + value
+              + " for "
+              + type.getSimpleName()
+              + ", expected one of "
+              + String.join(", ", names));
+    }
+    return constant;
+  }
+
+  /**
+   * Collect converted constants into an {@link EnumSet}.
+   *
+   * @param type The enum type of the constants.
+   * @param constants The constants.
+   * @return The set of the constants.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static EnumSet<?> toSet(Class<?> type, Collection<?> constants) {
+    final EnumSet set = EnumSet.noneOf((Class<Enum>) type);
+    set.addAll(constants);
+    return set;
+  }
+
+  private void add(String value, Object constant) {
+    exact.putIfAbsent(value, constant);
+    final Object previous = folded.putIfAbsent(fold(value), constant);
+    if (previous != null && previous != constant) {
+      folded.put(fold(value), AMBIGUOUS);
+    }
+  }
+
+  private static String fold(String value) {
+    final char[] chars = new char[value.length()];
+    for (int i = 0; i < chars.length; i++) {
+      final char c = value.charAt(i);
+      chars[i] = c == '_' ? '-' : Character.toLowerCase(c);
+    }
+    return new String(chars);
+  }
+
+  private static Alias aliasOf(Class<?> type, String name) {
+    try {
+      return type.getField(name).getAnnotation(Alias.class);
+    } catch (NoSuchFieldException e) {
+      return null;
+    }
+  }
+}
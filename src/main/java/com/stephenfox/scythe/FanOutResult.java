@@ -0,0 +1,150 @@
+package com.stephenfox.scythe;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The outcome of {@link Scythe#fanOut(String, int)}, one invocation of the method the options are
+ * declared at for each value of a multiple option. Results and errors are listed in the order of
+ * the values.
+ *
+ * <p>The exit code of an invocation is the value it returned if that is an {@code Integer}, 1 if
+ * it threw and 0 otherwise. Any code other than 0 is a failure, negative codes included. The
+ * combined exit code is that of the first invocation to fail, in the order of the values, so it is
+ * 0 only if every invocation succeeded.
+ *
+ * @author Stephen Fox.
+ */
+public final class FanOutResult {
+
+  private final List<Object> values;
+  private final List<Object> results;
+  private final List<Throwable> errors;
+  private final int exitCode;
+
+  private FanOutResult(
+      List<Object> values, List<Object> results, List<Throwable> errors, int exitCode) {
+    this.values = Collections.unmodifiableList(values);
+    this.results = Collections.unmodifiableList(results);
+    this.errors = Collections.unmodifiableList(errors);
+    this.exitCode = exitCode;
+  }
+
+  /**
+   * Invoke a method once per value of one of its arguments, at most {@code concurrency} at a time.
+   * Each invocation is given the other arguments unchanged and a collection of the single value in
+   * place of the collection of all values, an {@code EnumSet} for an {@code EnumSet} and a list
+   * otherwise.
+   *
+   * @param method The static method to invoke.
+   * @param arguments The arguments of the method.
+   * @param index The index of the argument holding the collection of values.
+   * @param concurrency The most invocations to run at once.
+   * @return The results of every invocation.
+   */
+  static FanOutResult run(Method method, Object[] arguments, int index, int concurrency) {
+    final List<Object> values =
+        arguments[index] == null
+            ? Collections.emptyList()
+            : new ArrayList<>((Collection<?>) arguments[index]);
+    final List<Object> results = new ArrayList<>(Collections.nCopies(values.size(), null));
+    final List<Throwable> errors = new ArrayList<>(Collections.nCopies(values.size(), null));
+    if (values.isEmpty()) {
+      return new FanOutResult(values, results, errors, 0);
+    }
+
+    final AtomicInteger threads = new AtomicInteger();
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Math.min(concurrency, values.size()),
+            runnable -> {
+              final Thread thread =
+                  new Thread(runnable, "scythe-fan-out-" + threads.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    try {
+      final List<Future<Object>> futures = new ArrayList<>(values.size());
+      for (Object value : values) {
+        final Object[] invocationArguments = arguments.clone();
+        invocationArguments[index] = single(arguments[index], value);
+        futures.add(executor.submit(() -> method.invoke(null, invocationArguments)));
+      }
+
+      int exitCode = 0;
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          final Object result = futures.get(i).get();
+          results.set(i, result);
+          if (exitCode == 0 && result instanceof Integer) {
+            exitCode = (Integer) result;
+          }
+        } catch (ExecutionException e) {
+          final Throwable cause = e.getCause();
+          errors.set(i, cause instanceof InvocationTargetException ? cause.getCause() : cause);
+          if (exitCode == 0) {
+            exitCode = 1;
+          }
+        }
+      }
+      return new FanOutResult(values, results, errors, exitCode);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting for " + method.getName(), e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** @return A collection of the same kind as all the values holding only the one value. */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Object single(Object values, Object value) {
+    if (values instanceof EnumSet) {
+      return EnumSet.of((Enum) value);
+    }
+    return Collections.singletonList(value);
+  }
+
+  /** @return The value of the multiple option each invocation was given. */
+  public List<Object> values() {
+    return values;
+  }
+
+  /** @return What each invocation returned, null for void methods and failed invocations. */
+  public List<Object> results() {
+    return results;
+  }
+
+  /** @return What each invocation threw, null for invocations that succeeded. */
+  public List<Throwable> errors() {
+    return errors;
+  }
+
+  /** @return True if no invocation threw. */
+  public boolean succeeded() {
+    for (Throwable error : errors) {
+      if (error != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return The exit code of the first invocation, in the order of the values, that returned a
+   *     code other than 0 or threw, or 0 if every invocation succeeded.
+   */
+  public int exitCode() {
+    return exitCode;
+  }
+}
@@ -0,0 +1,139 @@
+package com.stephenfox.scythe;
+
+import com.stephenfox.scythe.annotation.Option;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders the help message of a schema. Each option is a row of its names and type followed by its
+ * help text, the help column is as wide as the widest row needs up to a limit and help text is
+ * wrapped to the width of the message. Options with a {@link Option#group()} are listed under a
+ * heading per group, after the options without one.
+ *
+ * <pre>
+ *   --verbose, -v           Print more.
+ *
+ * Connection:
+ *   --host, -h String       The host to connect to, long help text wraps onto the following
+ *                           lines.
+ *   --port Integer          The port to connect to.
+ * </pre>
+ *
+ * @author Stephen Fox.
+ */
+final class HelpFormatter {
+
+  private static final int WIDTH = 80;
+  private static final int INDENT = 2;
+  private static final int GAP = 2;
+  private static final int MAX_NAMES_WIDTH = 40;
+
+  private HelpFormatter() {}
+
+  /**
+   * Render the help message for the options.
+   *
+   * @param options The options to render.
+   * @return The help message, each line ending with a line separator.
+   */
+  static String render(Option[] options) {
+    final Map<String, List<Option>> groups = new LinkedHashMap<>();
+    groups.put("", new ArrayList<>());
+    int namesWidth = 0;
+    for (Option option : options) {
+      groups.computeIfAbsent(option.group(), group -> new ArrayList<>()).add(option);
+      namesWidth = Math.max(namesWidth, names(option).length());
+    }
+    final int helpColumn = INDENT + Math.min(namesWidth, MAX_NAMES_WIDTH) + GAP;
+
+    final StringBuilder builder = new StringBuilder();
+    for (Map.Entry<String, List<Option>> group : groups.entrySet()) {
+      if (group.getValue().isEmpty()) {
+        continue;
+      }
+      if (!group.getKey().isEmpty()) {
+        if (builder.length() > 0) {
+          builder.append(System.lineSeparator());
+        }
+        builder.append(group.getKey()).append(':').append(System.lineSeparator());
+      }
+      for (Option option : group.getValue()) {
+        renderOption(builder, option, helpColumn);
+      }
+    }
+    return builder.toString();
+  }
+
+  private static String names(Option option) {
+    final StringBuilder names = new StringBuilder(option.name());
+    for (String alias : option.aliases()) {
+      names.append(", ").append(alias);
+    }
+    if (!option.isFlag()) {
+      names.append(' ').append(option.type().getSimpleName());
+    }
+    return names.toString();
+  }
+
+  private static void renderOption(StringBuilder builder, Option option, int helpColumn) {
+    final int lineStart = builder.length();
+    pad(builder, INDENT);
+    builder.append(names(option));
+
+    final String help =
+        option.choices().length == 0
+            ? option.help()
+            : (option.help() + " One of: " + String.join(", ", option.choices()) + ".").trim();
+    if (help.isEmpty()) {
+      builder.append(System.lineSeparator());
+      return;
+    }
+
+    if (builder.length() - lineStart + GAP > helpColumn) {
+      // The names overflow into the help column, so the help starts on its own line.
+      builder.append(System.lineSeparator());
+      pad(builder, helpColumn);
+    } else {
+      pad(builder, helpColumn - (builder.length() - lineStart));
+    }
+
+    final int helpWidth = Math.max(WIDTH - helpColumn, 20);
+    int column = 0;
+    int i = 0;
+    while (i < help.length()) {
+      while (i < help.length() && help.charAt(i) == ' ') {
+        i++;
+      }
+      int end = i;
+      while (end < help.length() && help.charAt(end) != ' ') {
+        end++;
+      }
+      if (end == i) {
+        break;
+      }
+
+      final int wordLength = end - i;
+      if (column > 0 && column + 1 + wordLength > helpWidth) {
+        builder.append(System.lineSeparator());
+        pad(builder, helpColumn);
+        column = 0;
+      } else if (column > 0) {
+        builder.append(' ');
+        column++;
+      }
+      builder.append(help, i, end);
+      column += wordLength;
+      i = end;
+    }
+    builder.append(System.lineSeparator());
+  }
+
+  private static void pad(StringBuilder builder, int count) {
+    for (int i = 0; i < count; i++) {
+      builder.append(' ');
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package com.stephenfox.scythe;
+
+import static com.stephenfox.scythe.ReflectionUtil.getDefaultFieldValue;
+
+import com.stephenfox.scythe.annotation.Option;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves references within option values and {@code String} default values:
+ *
+ * <ul>
+ *   <li>{@code ${NAME}} - the environment variable {@code NAME}
+ *   <li>{@code ${sys:name}} - the system property {@code name}
+ *   <li>{@code ${opt:--name}} - the first value of the option {@code --name}, itself resolved, or
+ *       its default value if it is given none
+ * </ul>
+ *
+ * {@code $${} gives a literal {@code ${}. Options are resolved in dependency order, a reference
+ * cycle between options is an error. Each reference is looked up once per parse however many
+ * values use it.
+ *
+ * @author Stephen Fox.
+ */
+final class Interpolator {
+
+  private static final int UNRESOLVED = 0;
+  private static final int RESOLVING = 1;
+  private static final int RESOLVED = 2;
+
+  private final Schema schema;
+  private final RawValues rawValues;
+  private final Map<String, String> environment;
+  private final RawValues resolved;
+  private final int[] states;
+  private final List<Integer> resolving = new ArrayList<>();
+  private final Map<String, String> fragments = new HashMap<>();
+
+  private Interpolator(Schema schema, RawValues rawValues, Map<String, String> environment) {
+    this.schema = schema;
+    this.rawValues = rawValues;
+    this.environment = environment;
+    this.resolved = new RawValues(schema.options.length);
+    this.states = new int[schema.options.length];
+  }
+
+  /**
+   * Resolve every reference in the raw values of a parse. Options without a raw value whose
+   * default value is a {@code String} with a reference are given the resolved default as their
+   * raw value.
+   *
+   * @param schema The schema of the options.
+   * @param rawValues The raw values of the parse.
+   * @param environment The environment to resolve environment variables from.
+   * @return The resolved raw values.
+   * @throws IllegalArgumentException If a reference cannot be resolved or options refer to each
+   *     other in a cycle.
+   */
+  static RawValues resolve(Schema schema, RawValues rawValues, Map<String, String> environment) {
+    final Interpolator interpolator = new Interpolator(schema, rawValues, environment);
+    for (int slot = 0; slot < schema.options.length; slot++) {
+      interpolator.resolveSlot(slot);
+    }
+    return interpolator.resolved;
+  }
+
+  private void resolveSlot(int slot) {
+    if (states[slot] == RESOLVED) {
+      return;
+    } else if (states[slot] == RESOLVING) {
+      final StringBuilder cycle = new StringBuilder("Cyclic reference between options: ");
+      for (int i = resolving.indexOf(slot); i < resolving.size(); i++) {
+        cycle.append(schema.options[resolving.get(i)].name()).append(" -> ");
+      }
+      cycle.append(schema.options[slot].name());
+      throw new IllegalArgumentException(cycle.toString());
+    }
+
+    states[slot] = RESOLVING;
+    resolving.add(slot);
+    final Option option = schema.options[slot];
+    if (rawValues.count(slot) > 0) {
+      for (String value : rawValues.all(slot)) {
+        resolved.add(slot, interpolate(value, option));
+      }
+    } else if (!option.multiple() && !hasSupplier(slot)) {
+      final Object defaultValue = defaultFieldValue(option);
+      if (defaultValue instanceof String && ((String) defaultValue).contains("${")) {
+        resolved.add(slot, interpolate((String) defaultValue, option));
+      }
+    }
+    resolving.remove(resolving.size() - 1);
+    states[slot] = RESOLVED;
+  }
+
+  private String interpolate(String value, Option option) {
+    int start = value.indexOf('$');
+    if (start < 0) {
+      return value;
+    }
+
+    final StringBuilder builder = new StringBuilder(value.length());
+    int copied = 0;
+    while (start >= 0 && start + 1 < value.length()) {
+      if (value.startsWith("$${", start)) {
+        builder.append(value, copied, start).append("${");
+        copied = start + 3;
+        start = value.indexOf('$', copied);
+        continue;
+      } else if (value.charAt(start + 1) != '{') {
+        start = value.indexOf('$', start + 1);
+        continue;
+      }
+
+      final int end = value.indexOf('}', start + 2);
+      if (end < 0) {
+        throw new IllegalArgumentException(
+            "Unterminated reference in value of " + option.name() + ": " + value);
+      }
+      builder.append(value, copied, start);
+      builder.append(lookup(value.substring(start + 2, end), option));
+      copied = end + 1;
+      start = value.indexOf('$', copied);
+    }
+    return builder.append(value, copied, value.length()).toString();
+  }
+
+  private String lookup(String reference, Option option) {
+    String value = fragments.get(reference);
+    if (value != null) {
+      return value;
+    }
+
+    if (reference.startsWith("opt:")) {
+      final String name = reference.substring(4);
+      final int slot = schema.slotOf(name, 0, name.length());
+      if (slot < 0) {
+        throw new IllegalArgumentException(
+            "Unknown option ${" + reference + "} in value of " + option.name());
+      }
+      resolveSlot(slot);
+      value = resolved.first(slot);
+      if (value == null) {
+        value = defaultValue(slot);
+      }
+    } else if (reference.startsWith("sys:")) {
+      value = System.getProperty(reference.substring(4));
+    } else {
+      value = environment.get(reference);
+    }
+
+    if (value == null) {
+      throw new IllegalArgumentException(
+          "Unresolved reference ${" + reference + "} in value of " + option.name());
+    }
+    fragments.put(reference, value);
+    return value;
+  }
+
+  /**
+   * @return The default value of an option given no value, as a string, or null if it has none.
+   *     Flags default to false, and an option with a supplier calls it once, keeping the value in
+   *     the resolved raw values for the rest of the parse.
+   */
+  private String defaultValue(int slot) {
+    final Option option = schema.options[slot];
+    final Object defaultValue;
+    if (option.isFlag()) {
+      defaultValue = Boolean.FALSE;
+    } else if (option.multiple()) {
+      defaultValue = null;
+    } else if (hasSupplier(slot)) {
+      defaultValue = DefaultSuppliers.get(schema, resolved, slot);
+    } else {
+      defaultValue = defaultFieldValue(option);
+    }
+    return defaultValue == null ? null : String.valueOf(defaultValue);
+  }
+
+  private boolean hasSupplier(int slot) {
+    return schema.defaultSuppliers != null && schema.defaultSuppliers[slot] != null;
+  }
+
+  private Object defaultFieldValue(Option option) {
+    final List<String> names = new ArrayList<>(1 + option.aliases().length);
+    names.add(option.name());
+    names.addAll(Arrays.asList(option.aliases()));
+    return getDefaultFieldValue(schema.clazz, names);
+  }
+}
@@ -0,0 +1,13 @@
+package com.stephenfox.scythe;
+
+/**
+ * Exception class for option values that break a rule declared on their {@link
+ * com.stephenfox.scythe.annotation.Option}, such as its {@code max} or {@code pattern}.
+ *
+ * @author Stephen Fox.
+ */
+public class InvalidValueException extends RuntimeException {
+  InvalidValueException(String message) {
+    super(message);
+  }
+}
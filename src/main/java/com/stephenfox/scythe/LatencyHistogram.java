@@ -0,0 +1,89 @@
+package com.stephenfox.scythe;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds with a fixed relative error, in the style of an HDR
+ * histogram. Each power of two range is split into {@value #SUB_BUCKETS} linear buckets, so a
+ * recorded value is known to within about 6% of itself whatever its magnitude. Buckets are striped
+ * counters, so recording from many threads at once does not contend on a single value.
+ *
+ * @author Stephen Fox.
+ */
+final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Values below SUB_BUCKETS have a bucket each, then SUB_BUCKETS per power of two up to 2^63.
+  private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder count = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+  LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /** @param nanos The latency to record, negative values are recorded as zero. */
+  void record(long nanos) {
+    final long value = Math.max(nanos, 0);
+    buckets[indexOf(value)].increment();
+    count.increment();
+    max.accumulate(value);
+  }
+
+  /** @return The number of latencies recorded. */
+  long count() {
+    return count.sum();
+  }
+
+  /** @return The largest latency recorded, or zero if none were. */
+  long max() {
+    return max.get();
+  }
+
+  /**
+   * The latency at a quantile of those recorded, for example {@code 0.99} for the 99th percentile.
+   *
+   * @param quantile The quantile, between zero and one.
+   * @return The highest value of the bucket the quantile falls in, or zero if nothing was recorded.
+   */
+  long valueAt(double quantile) {
+    final long total = count.sum();
+    if (total == 0) {
+      return 0;
+    }
+
+    final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets[i].sum();
+      if (seen >= rank) {
+        return Math.min(highestValueOf(i), max());
+      }
+    }
+    return max();
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long highestValueOf(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+}
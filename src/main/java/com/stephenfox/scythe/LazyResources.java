@@ -0,0 +1,174 @@
+package com.stephenfox.scythe;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Converters for option values that name a file to read, where {@code -} names standard input.
+ * Files are checked to exist when the value is converted. Streams and channels only open the file
+ * when first read, so options that are never read never hold a file open. A {@link ByteBuffer}
+ * cannot be created lazily, so the file is mapped when the value is converted instead.
+ *
+ * @author Stephen Fox.
+ */
+final class LazyResources {
+
+  private static final String STDIN = "-";
+
+  private LazyResources() {}
+
+  /** @return The path, which must exist. */
+  static Path path(String value) {
+    final Path path = Paths.get(value);
+    if (!Files.exists(path)) {
+      throw new IllegalArgumentException("No such file: " + value);
+    }
+    return path;
+  }
+
+  /**
+   * Memory map a file read only, as soon as the value is converted. The file contents are paged in
+   * as they are read rather than copied onto the heap, the mapping is released when the buffer is
+   * garbage collected. A buffer holds at most {@link Integer#MAX_VALUE} bytes, so larger files are
+   * rejected and should be read through a {@link ReadableByteChannel} instead.
+   *
+   * @return The mapped file.
+   */
+  static ByteBuffer map(String value) {
+    final Path path = path(value);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException(
+            "File "
+                + value
+                + " is too large to map into a single buffer, read it as a ReadableByteChannel");
+      }
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to map file " + value, e);
+    }
+  }
+
+  /** @return A stream of the file, or standard input for {@code -}. */
+  static InputStream inputStream(String value) {
+    if (value.equals(STDIN)) {
+      return new UncloseableInputStream(System.in);
+    }
+    return new LazyInputStream(path(value));
+  }
+
+  /** @return A channel of the file, or standard input for {@code -}. */
+  static ReadableByteChannel channel(String value) {
+    if (value.equals(STDIN)) {
+      return Channels.newChannel(new UncloseableInputStream(System.in));
+    }
+    return new LazyChannel(path(value));
+  }
+
+  /** Standard input is shared by the whole process, so closing an option value leaves it open. */
+  private static final class UncloseableInputStream extends FilterInputStream {
+    UncloseableInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  private static final class LazyInputStream extends InputStream {
+    private final Path path;
+    private InputStream in;
+    private boolean closed;
+
+    LazyInputStream(Path path) {
+      this.path = path;
+    }
+
+    private InputStream in() throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      if (in == null) {
+        in = Files.newInputStream(path);
+      }
+      return in;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return in().read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return in().read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      return in().skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+      return in().available();
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      if (in != null) {
+        in.close();
+      }
+    }
+  }
+
+  private static final class LazyChannel implements ReadableByteChannel {
+    private final Path path;
+    private FileChannel channel;
+    private boolean closed;
+
+    LazyChannel(Path path) {
+      this.path = path;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      if (closed) {
+        throw new ClosedChannelException();
+      }
+      if (channel == null) {
+        try {
+          channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+          throw new IOException("No such file: " + path, e);
+        }
+      }
+      return channel.read(dst);
+    }
+
+    @Override
+    public boolean isOpen() {
+      return !closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      if (channel != null) {
+        channel.close();
+      }
+    }
+  }
+}
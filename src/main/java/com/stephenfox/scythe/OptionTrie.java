@@ -0,0 +1,237 @@
+package com.stephenfox.scythe;
+
+import com.stephenfox.scythe.annotation.Option;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A compressed radix trie of every option name and alias of a schema, for matching tokens that are
+ * not an exact name: unique prefixes of long names, such as {@code --verb} for {@code --verbose},
+ * and names given in a different case. A lookup walks the token once, so it takes time in the
+ * length of the token however many options there are.
+ *
+ * <p>Each node knows the slot shared by every name beneath it, or that there is more than one, so
+ * an ambiguous prefix is detected at the node the prefix ends at. Aliases of the same option are
+ * never ambiguous with each other.
+ *
+ * @author Stephen Fox.
+ */
+final class OptionTrie {
+
+  /** Returned by {@link #slotOf} when a token matches more than one option. */
+  static final int AMBIGUOUS = -2;
+
+  private final Option[] options;
+  private final boolean ignoreCase;
+  private final Node root = new Node();
+
+  /**
+   * Build the trie of the names and aliases of the options.
+   *
+   * @param options The options, indexed by slot.
+   * @param ignoreCase Whether names are matched regardless of case.
+   */
+  OptionTrie(Option[] options, boolean ignoreCase) {
+    this.options = options;
+    this.ignoreCase = ignoreCase;
+    for (int slot = 0; slot < options.length; slot++) {
+      insert(options[slot].name(), slot);
+      for (String alias : options[slot].aliases()) {
+        insert(alias, slot);
+      }
+    }
+    root.summarise();
+  }
+
+  /**
+   * Look up the slot of the option matching the start of {@code token} up to {@code to}
+   * (exclusive). An exact match is preferred to a prefix match.
+   *
+   * @param token The token.
+   * @param to The end of the name within the token.
+   * @param prefix Whether the token may be a unique prefix of a name.
+   * @return The slot of the option, -1 if no option matches or {@link #AMBIGUOUS}.
+   */
+  int slotOf(String token, int to, boolean prefix) {
+    Node node = root;
+    int i = 0;
+    while (i < to) {
+      final Node child = node.child(fold(token.charAt(i)));
+      if (child == null) {
+        return -1;
+      }
+
+      final String label = child.label;
+      int j = 0;
+      while (j < label.length() && i < to) {
+        if (label.charAt(j) != fold(token.charAt(i))) {
+          return -1;
+        }
+        i++;
+        j++;
+      }
+      if (j < label.length()) {
+        // The token ends part way along the edge to the child.
+        return prefix ? child.subtreeSlot : -1;
+      }
+      node = child;
+    }
+
+    if (node.slot != -1) {
+      return node.slot;
+    }
+    return prefix ? node.subtreeSlot : -1;
+  }
+
+  /**
+   * Describe the options an ambiguous token matches.
+   *
+   * @param token The token {@link #slotOf} returned {@link #AMBIGUOUS} for.
+   * @param to The end of the name within the token.
+   * @return The message of the error to report.
+   */
+  String ambiguity(String token, int to) {
+    final Set<String> names = new TreeSet<>();
+    for (Option option : options) {
+      if (matches(option.name(), token, to)) {
+        names.add(option.name());
+        continue;
+      }
+      for (String alias : option.aliases()) {
+        if (matches(alias, token, to)) {
+          names.add(option.name());
+          break;
+        }
+      }
+    }
+    return "Ambiguous option "
+        + token.substring(0, to)
+        + " could be any of "
+        + String.join(", ", names);
+  }
+
+  private boolean matches(String name, String token, int to) {
+    if (name.length() < to) {
+      return false;
+    }
+    for (int i = 0; i < to; i++) {
+      if (fold(name.charAt(i)) != fold(token.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private char fold(char c) {
+    return ignoreCase ? Character.toLowerCase(c) : c;
+  }
+
+  private void insert(String name, int slot) {
+    final StringBuilder key = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      key.append(fold(name.charAt(i)));
+    }
+
+    Node node = root;
+    int i = 0;
+    while (i < key.length()) {
+      final Node child = node.child(key.charAt(i));
+      if (child == null) {
+        node.add(new Node(key.substring(i)), name, slot);
+        return;
+      }
+
+      final String label = child.label;
+      int j = 0;
+      while (j < label.length() && i < key.length() && label.charAt(j) == key.charAt(i)) {
+        i++;
+        j++;
+      }
+      if (j < label.length()) {
+        // Split the edge where the key leaves it.
+        final Node middle = new Node(label.substring(0, j));
+        child.label = label.substring(j);
+        node.replace(child, middle);
+        middle.children = new Node[] {child};
+        middle.first = new char[] {child.label.charAt(0)};
+      }
+      node = j < label.length() ? node.child(key.charAt(i - j)) : child;
+    }
+    node.terminate(name, slot);
+  }
+
+  private static final class Node {
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    String label;
+    // The first character of each child's label, searched before the children themselves.
+    char[] first = new char[0];
+    Node[] children = NO_CHILDREN;
+    // The slot of the name ending at this node, -1 if none ends here.
+    int slot = -1;
+    // The name ending at this node, as declared.
+    String name;
+    // The slot of every name at or beneath this node, or AMBIGUOUS if they differ.
+    int subtreeSlot = -1;
+
+    Node() {
+      this("");
+    }
+
+    Node(String label) {
+      this.label = label;
+    }
+
+    Node child(char c) {
+      for (int k = 0; k < first.length; k++) {
+        if (first[k] == c) {
+          return children[k];
+        }
+      }
+      return null;
+    }
+
+    void add(Node child, String name, int slot) {
+      children = Arrays.copyOf(children, children.length + 1);
+      first = Arrays.copyOf(first, first.length + 1);
+      children[children.length - 1] = child;
+      first[first.length - 1] = child.label.charAt(0);
+      child.terminate(name, slot);
+    }
+
+    void replace(Node child, Node replacement) {
+      for (int k = 0; k < children.length; k++) {
+        if (children[k] == child) {
+          children[k] = replacement;
+          return;
+        }
+      }
+    }
+
+    void terminate(String name, int slot) {
+      if (this.slot == -1) {
+        this.slot = slot;
+        this.name = name;
+      } else if (this.slot != slot && !this.name.equals(name)) {
+        // Different names that only differ by case, for two different options.
+        this.slot = AMBIGUOUS;
+      }
+      // Otherwise the first option declaring a name keeps it.
+    }
+
+    int summarise() {
+      subtreeSlot = slot;
+      for (Node child : children) {
+        final int childSlot = child.summarise();
+        if (subtreeSlot == -1) {
+          subtreeSlot = childSlot;
+        } else if (childSlot != -1 && childSlot != subtreeSlot) {
+          subtreeSlot = AMBIGUOUS;
+        }
+      }
+      return subtreeSlot;
+    }
+  }
+}
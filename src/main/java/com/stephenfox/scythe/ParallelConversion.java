@@ -0,0 +1,97 @@
+package com.stephenfox.scythe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts a large list of option values by splitting it across the common {@link ForkJoinPool}.
+ * The converted values keep the order of the raw values, and every value that fails to convert is
+ * collected rather than stopping at the first. The first failure is thrown as it was, the same as
+ * when converting values one at a time, with the failures after it attached as suppressed.
+ *
+ * @author Stephen Fox.
+ */
+final class ParallelConversion extends RecursiveAction {
+
+  // Below this many values a task converts them itself rather than splitting further.
+  private static final int MIN_SPLIT = 64;
+
+  private final List<String> values;
+  private final Converter converter;
+  private final Object[] converted;
+  private final RuntimeException[] errors;
+  private final int from;
+  private final int to;
+  private final int split;
+
+  private ParallelConversion(
+      List<String> values,
+      Converter converter,
+      Object[] converted,
+      RuntimeException[] errors,
+      int from,
+      int to,
+      int split) {
+    this.values = values;
+    this.converter = converter;
+    this.converted = converted;
+    this.errors = errors;
+    this.from = from;
+    this.to = to;
+    this.split = split;
+  }
+
+  /**
+   * Convert every value.
+   *
+   * @param values The raw values, which must allow random access.
+   * @param converter A thread safe converter.
+   * @return The converted values in the order of the raw values.
+   * @throws RuntimeException The first value that failed to convert, if any did.
+   */
+  static List<Object> convert(List<String> values, Converter converter) {
+    final int size = values.size();
+    final Object[] converted = new Object[size];
+    final RuntimeException[] errors = new RuntimeException[size];
+    final int split =
+        Math.max(MIN_SPLIT, size / (ForkJoinPool.getCommonPoolParallelism() * 4));
+    ForkJoinPool.commonPool()
+        .invoke(new ParallelConversion(values, converter, converted, errors, 0, size, split));
+
+    RuntimeException first = null;
+    for (RuntimeException error : errors) {
+      if (first == null) {
+        first = error;
+      } else if (error != null && error != first) {
+        first.addSuppressed(error);
+      }
+    }
+    if (first != null) {
+      throw first;
+    }
+
+    return new ArrayList<>(Arrays.asList(converted));
+  }
+
+  @Override
+  protected void compute() {
+    if (to - from <= split) {
+      for (int i = from; i < to; i++) {
+        try {
+          converted[i] = converter.convert(values.get(i));
+        } catch (RuntimeException e) {
+          errors[i] = e;
+        }
+      }
+      return;
+    }
+
+    final int middle = (from + to) >>> 1;
+    invokeAll(
+        new ParallelConversion(values, converter, converted, errors, from, middle, split),
+        new ParallelConversion(values, converter, converted, errors, middle, to, split));
+  }
+}
@@ -0,0 +1,276 @@
+package com.stephenfox.scythe;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A bounded cache of parse results, shared by every parser given it with {@link
+ * Scythe#cache(ParseCache)}. A result is reused for a parse of the same class with the same
+ * command line arguments, the same values of the environment variables its options read and
+ * unchanged configuration files. The least recently used results are evicted first.
+ *
+ * <p>The cache is bounded either by the number of results or by their weight, the number of
+ * characters in the arguments that produced them. It is split into segments each with their own
+ * lock, so parsers on many threads rarely wait on each other.
+ *
+ * <p>Results are not cached for parsers that interpolate values, nor for options whose type is not
+ * deterministic, see {@link com.stephenfox.scythe.annotation.Option#deterministic()}.
+ *
+ * <pre>{@code
+ * private static final ParseCache CACHE = ParseCache.ofSize(4096);
+ *
+ * Scythe.cli(args, Main.class).cache(CACHE).parse();
+ * }</pre>
+ *
+ * @author Stephen Fox.
+ */
+public final class ParseCache {
+
+  private static final int MAX_SEGMENTS = 16;
+
+  private final Segment[] segments;
+  private final boolean weighed;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  private ParseCache(long limit, boolean weighed) {
+    if (limit < 1) {
+      throw new IllegalArgumentException("Cache limit must be > 0, was " + limit);
+    }
+    // Only split the cache when each segment still holds a useful number of results.
+    int segmentCount = 1;
+    while (segmentCount < MAX_SEGMENTS && limit / (segmentCount * 2) >= 64) {
+      segmentCount *= 2;
+    }
+    this.segments = new Segment[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment(limit / segmentCount + (i < limit % segmentCount ? 1 : 0));
+    }
+    this.weighed = weighed;
+  }
+
+  /**
+   * Create a cache holding at most a number of results.
+   *
+   * @param maxResults The most results to hold.
+   * @return The cache.
+   */
+  public static ParseCache ofSize(int maxResults) {
+    return new ParseCache(maxResults, false);
+  }
+
+  /**
+   * Create a cache holding results whose arguments total at most a number of characters.
+   *
+   * @param maxWeight The most characters of arguments to hold results for.
+   * @return The cache.
+   */
+  public static ParseCache ofWeight(long maxWeight) {
+    return new ParseCache(maxWeight, true);
+  }
+
+  /** @return The number of parses that reused a cached result. */
+  public long hitCount() {
+    return hits.sum();
+  }
+
+  /** @return The number of parses that could be cached but had no cached result. */
+  public long missCount() {
+    return misses.sum();
+  }
+
+  /** @return The number of results evicted to make room for others. */
+  public long evictionCount() {
+    return evictions.sum();
+  }
+
+  /** @return The fraction of cacheable parses that reused a result, 0 before any parse. */
+  public double hitRate() {
+    final long hits = hitCount();
+    final long total = hits + missCount();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  /** @return The number of results held. */
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.map.size();
+      }
+    }
+    return size;
+  }
+
+  /** Remove every result. */
+  public void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.map.clear();
+        segment.weight = 0;
+      }
+    }
+  }
+
+  /**
+   * Create the key of a parse.
+   *
+   * @return The key, or null if the configuration files cannot be read and the parse must not be
+   *     cached.
+   */
+  static Key key(
+      Schema schema,
+      String[] args,
+      Map<String, String> environment,
+      List<ConfigSource> configSources,
+      int flags) {
+    final String[] env = new String[schema.options.length];
+    for (int slot = 0; slot < env.length; slot++) {
+      final String name = schema.options[slot].env();
+      env[slot] = name.isEmpty() ? null : environment.get(name);
+    }
+
+    final Path[] paths = new Path[configSources.size()];
+    final long[] stamps = new long[paths.length * 2];
+    for (int i = 0; i < paths.length; i++) {
+      paths[i] = configSources.get(i).path;
+      try {
+        final BasicFileAttributes attributes =
+            Files.readAttributes(paths[i], BasicFileAttributes.class);
+        stamps[i * 2] = attributes.lastModifiedTime().toMillis();
+        stamps[i * 2 + 1] = attributes.size();
+      } catch (IOException e) {
+        return null;
+      }
+    }
+    // The parser shares its arguments with the caller, who may refill them for the next parse.
+    return new Key(schema.clazz, args.clone(), env, paths, stamps, flags);
+  }
+
+  /**
+   * Get the cached result of a parse, parsing and caching it if there is none.
+   *
+   * @param key The key of the parse.
+   * @param parse Parses the result, which must be immutable.
+   * @return The result.
+   */
+  Object get(Key key, Supplier<Object> parse) {
+    final Segment segment = segments[(key.hash ^ key.hash >>> 16) & (segments.length - 1)];
+    synchronized (segment) {
+      final Entry entry = segment.map.get(key);
+      if (entry != null) {
+        hits.increment();
+        return entry.result;
+      }
+    }
+
+    // Parse outside the lock, two threads racing on the same key both parse and one result wins.
+    misses.increment();
+    final Object result = parse.get();
+    final long weight = weighed ? key.weight : 1;
+    synchronized (segment) {
+      final Entry previous = segment.map.put(key, new Entry(result, weight));
+      segment.weight += weight - (previous == null ? 0 : previous.weight);
+      final Iterator<Entry> eldest = segment.map.values().iterator();
+      while (segment.weight > segment.limit && segment.map.size() > 1) {
+        segment.weight -= eldest.next().weight;
+        eldest.remove();
+        evictions.increment();
+      }
+    }
+    return result;
+  }
+
+  private static final class Segment {
+    // Access ordered, so iteration starts at the least recently used result.
+    final LinkedHashMap<Key, Entry> map = new LinkedHashMap<>(16, 0.75f, true);
+    final long limit;
+    long weight;
+
+    Segment(long limit) {
+      this.limit = limit;
+    }
+  }
+
+  private static final class Entry {
+    final Object result;
+    final long weight;
+
+    Entry(Object result, long weight) {
+      this.result = result;
+      this.weight = weight;
+    }
+  }
+
+  /** Everything a parse result depends on besides the class itself. */
+  static final class Key {
+    private final Class<?> clazz;
+    private final String[] args;
+    private final String[] env;
+    private final Path[] paths;
+    private final long[] stamps;
+    private final int flags;
+    private final int hash;
+    private final long weight;
+
+    private Key(
+        Class<?> clazz,
+        String[] args,
+        String[] env,
+        Path[] paths,
+        long[] stamps,
+        int flags) {
+      this.clazz = clazz;
+      this.args = args;
+      this.env = env;
+      this.paths = paths;
+      this.stamps = stamps;
+      this.flags = flags;
+
+      int hash = clazz.hashCode();
+      long weight = 1;
+      for (String arg : args) {
+        hash = 31 * hash + arg.hashCode();
+        weight += arg.length();
+      }
+      hash = 31 * hash + Arrays.hashCode(env);
+      hash = 31 * hash + Arrays.hashCode(paths);
+      hash = 31 * hash + Arrays.hashCode(stamps);
+      this.hash = 31 * hash + flags;
+      this.weight = weight;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Key key = (Key) o;
+      return hash == key.hash
+          && clazz == key.clazz
+          && flags == key.flags
+          && Arrays.equals(args, key.args)
+          && Arrays.equals(env, key.env)
+          && Arrays.equals(paths, key.paths)
+          && Arrays.equals(stamps, key.stamps);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package com.stephenfox.scythe;
+
+import com.stephenfox.scythe.annotation.Option;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Usage and latency metrics recorded by the parsers they are given to with {@link
+ * Scythe#metrics(ParseMetrics)}. One instance can be shared between any number of parsers and
+ * threads, every count is a striped counter so recording never takes a lock.
+ *
+ * <p>The following are recorded for each parse:
+ *
+ * <ul>
+ *   <li>each option name and alias given on the command line, as the arguments are scanned. An
+ *       abbreviated name or one given in a different case counts as the name of its option
+ *   <li>each option that fell back to its default value
+ *   <li>the type of any exception thrown
+ *   <li>the time taken, in a histogram accurate to about 6%
+ * </ul>
+ *
+ * The metrics can be read directly, over JMX once {@link #register(String)} is called, or written
+ * to a file with {@link #dump(Path)}. Parsers without metrics record nothing. A parse answered by
+ * a {@link ParseCache} scans and converts nothing, so only its time and any exception are
+ * recorded.
+ *
+ * <pre>{@code
+ * final ParseMetrics metrics = new ParseMetrics().register("app").dumpOnExit(path);
+ * Scythe.cli(args, Main.class).metrics(metrics).parse();
+ * }</pre>
+ *
+ * @author Stephen Fox.
+ */
+public final class ParseMetrics implements ParseMetricsMXBean {
+
+  private final LongAdder parseCount = new LongAdder();
+  private final ConcurrentMap<String, LongAdder> nameUsage = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, LongAdder> defaultsUsed = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+  private final LatencyHistogram latency = new LatencyHistogram();
+
+  @Override
+  public long getParseCount() {
+    return parseCount.sum();
+  }
+
+  @Override
+  public Map<String, Long> getNameUsage() {
+    return snapshot(nameUsage);
+  }
+
+  @Override
+  public Map<String, Long> getDefaultsUsed() {
+    return snapshot(defaultsUsed);
+  }
+
+  @Override
+  public Map<String, Long> getErrors() {
+    return snapshot(errors);
+  }
+
+  @Override
+  public Map<String, Long> getLatencyPercentiles() {
+    final Map<String, Long> percentiles = new LinkedHashMap<>();
+    percentiles.put("p50", latency.valueAt(0.5));
+    percentiles.put("p90", latency.valueAt(0.9));
+    percentiles.put("p99", latency.valueAt(0.99));
+    percentiles.put("p999", latency.valueAt(0.999));
+    percentiles.put("max", latency.max());
+    return percentiles;
+  }
+
+  /**
+   * Register these metrics with the platform MBean server, under the object name {@code
+   * com.stephenfox.scythe:type=ParseMetrics,name=<name>}.
+   *
+   * @param name The name to register the metrics under.
+   * @return This instance.
+   * @throws IllegalArgumentException If the name is not valid or is already registered.
+   */
+  public ParseMetrics register(String name) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName(name));
+    } catch (JMException e) {
+      throw new IllegalArgumentException("Unable to register metrics " + name, e);
+    }
+    return this;
+  }
+
+  /**
+   * Write the metrics to a file as {@code key=value} lines, replacing the file if it exists. Keys
+   * are {@code parses}, {@code latency.<percentile>}, {@code name.<name>}, {@code
+   * default.<name>} and {@code error.<exception>}.
+   *
+   * @param path The file to write.
+   * @throws UncheckedIOException If the file cannot be written.
+   */
+  public void dump(Path path) {
+    try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      writer.write("parses=" + getParseCount() + System.lineSeparator());
+      write(writer, "latency.", getLatencyPercentiles());
+      write(writer, "name.", getNameUsage());
+      write(writer, "default.", getDefaultsUsed());
+      write(writer, "error.", getErrors());
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to write metrics to " + path, e);
+    }
+  }
+
+  /**
+   * Write the metrics to a file with {@link #dump(Path)} when the JVM shuts down.
+   *
+   * @param path The file to write.
+   * @return This instance.
+   */
+  public ParseMetrics dumpOnExit(Path path) {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(path), "scythe-metrics-dump"));
+    return this;
+  }
+
+  /** Record the time taken by a parse, successful or not. */
+  void recordParse(long nanos) {
+    parseCount.increment();
+    latency.record(nanos);
+  }
+
+  void recordError(RuntimeException e) {
+    increment(errors, e.getClass().getSimpleName());
+  }
+
+  void recordDefault(Option option) {
+    increment(defaultsUsed, option.name());
+  }
+
+  /** Record an option name or alias matched in the command line arguments. */
+  void recordName(String name) {
+    increment(nameUsage, name);
+  }
+
+  private static void increment(ConcurrentMap<String, LongAdder> counters, String key) {
+    LongAdder counter = counters.get(key);
+    if (counter == null) {
+      counter = counters.computeIfAbsent(key, k -> new LongAdder());
+    }
+    counter.increment();
+  }
+
+  private static Map<String, Long> snapshot(ConcurrentMap<String, LongAdder> counters) {
+    final Map<String, Long> snapshot = new TreeMap<>();
+    for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue().sum());
+    }
+    return snapshot;
+  }
+
+  private static void write(Writer writer, String prefix, Map<String, Long> values)
+      throws IOException {
+    for (Map.Entry<String, Long> entry : values.entrySet()) {
+      writer.write(prefix + entry.getKey() + "=" + entry.getValue() + System.lineSeparator());
+    }
+  }
+
+  private static ObjectName objectName(String name) throws JMException {
+    return new ObjectName(
+        "com.stephenfox.scythe:type=ParseMetrics,name=" + ObjectName.quote(name));
+  }
+}
@@ -0,0 +1,29 @@
+package com.stephenfox.scythe;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link ParseMetrics}, for reading the metrics over JMX.
+ *
+ * @author Stephen Fox.
+ */
+public interface ParseMetricsMXBean {
+
+  /** @return The number of calls to {@link Scythe#parse()}, including those that failed. */
+  long getParseCount();
+
+  /** @return How often each option name and alias was given on the command line. */
+  Map<String, Long> getNameUsage();
+
+  /** @return How often each option fell back to its default value, by option name. */
+  Map<String, Long> getDefaultsUsed();
+
+  /** @return How often parsing failed, by the simple name of the exception thrown. */
+  Map<String, Long> getErrors();
+
+  /**
+   * @return The parse latency in nanoseconds at the 50th, 90th, 99th and 99.9th percentiles, keyed
+   *     {@code p50}, {@code p90}, {@code p99} and {@code p999}, and the largest keyed {@code max}.
+   */
+  Map<String, Long> getLatencyPercentiles();
+}
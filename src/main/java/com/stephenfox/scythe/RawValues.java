@@ -0,0 +1,108 @@
+package com.stephenfox.scythe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The unconverted values found for each option slot of a {@link Schema}. An option seen once holds
+ * its value directly, a list is only created once an option has been seen more than once.
+ *
+ * @author Stephen Fox.
+ */
+final class RawValues {
+
+  private final Object[] values;
+  // The default values supplied during the parse, by slot, so that each supplier is called at most
+  // once. Created when the first value is supplied.
+  private Object[] supplied;
+  private boolean[] isSupplied;
+
+  RawValues(int slots) {
+    this.values = new Object[slots];
+  }
+
+  @SuppressWarnings("unchecked")
+  void add(int slot, String value) {
+    final Object current = values[slot];
+    if (current == null) {
+      values[slot] = value;
+    } else if (current instanceof String) {
+      final List<String> list = new ArrayList<>(4);
+      list.add((String) current);
+      list.add(value);
+      values[slot] = list;
+    } else {
+      ((List<String>) current).add(value);
+    }
+  }
+
+  /** @return The first value found for the slot, or null if there is none. */
+  @SuppressWarnings("unchecked")
+  String first(int slot) {
+    final Object current = values[slot];
+    if (current == null || current instanceof String) {
+      return (String) current;
+    }
+    return ((List<String>) current).get(0);
+  }
+
+  /** @return Every value found for the slot, in the order they appeared. */
+  @SuppressWarnings("unchecked")
+  List<String> all(int slot) {
+    final Object current = values[slot];
+    if (current == null) {
+      return Collections.emptyList();
+    } else if (current instanceof String) {
+      return Collections.singletonList((String) current);
+    }
+    return (List<String>) current;
+  }
+
+  /** @return True if the slot holds the same values in both tables. */
+  boolean sameValues(int slot, RawValues other) {
+    return all(slot).equals(other.all(slot));
+  }
+
+  /** @return True if any slot has no values. */
+  boolean hasEmptySlot() {
+    for (Object value : values) {
+      if (value == null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** @return The number of values found for the slot. */
+  @SuppressWarnings("unchecked")
+  int count(int slot) {
+    final Object current = values[slot];
+    if (current == null) {
+      return 0;
+    } else if (current instanceof String) {
+      return 1;
+    }
+    return ((List<String>) current).size();
+  }
+
+  /** Record the default value supplied for a slot with no values. */
+  void supply(int slot, Object value) {
+    if (supplied == null) {
+      supplied = new Object[values.length];
+      isSupplied = new boolean[values.length];
+    }
+    supplied[slot] = value;
+    isSupplied[slot] = true;
+  }
+
+  /** @return True if a default value has been supplied for the slot. */
+  boolean isSupplied(int slot) {
+    return isSupplied != null && isSupplied[slot];
+  }
+
+  /** @return The default value supplied for the slot, see {@link #isSupplied(int)}. */
+  Object supplied(int slot) {
+    return supplied[slot];
+  }
+}
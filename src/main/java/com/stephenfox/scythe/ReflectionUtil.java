@@ -29,11 +29,7 @@ class ReflectionUtil {
     final List<T> foundAnnotations = new ArrayList<>();
 
     for (Field field : clazz.getDeclaredFields()) {
-      final T annotation = field.getAnnotation(annotationClass);
-      if (annotation != null) {
-        foundAnnotations.add(annotation);
-      }
-
+      // Also finds a lone annotation, so there is no need to check getAnnotation separately.
       final T[] annotations = field.getAnnotationsByType(annotationClass);
       foundAnnotations.addAll(Arrays.asList(annotations));
 
@@ -68,12 +64,6 @@ class ReflectionUtil {
     final List<T> foundAnnotations = new ArrayList<>();
 
     for (Method m : clazz.getDeclaredMethods()) {
-      final T annotation = m.getAnnotation(annotationClass);
-
-      if (annotation != null) {
-        foundAnnotations.add(annotation);
-      }
-
       final T[] annotations = m.getAnnotationsByType(annotationClass);
       foundAnnotations.addAll(Arrays.asList(annotations));
 
@@ -0,0 +1,340 @@
+package com.stephenfox.scythe;
+
+import com.stephenfox.scythe.annotation.Option;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact binary encoding of the parsed values of a schema, so a parse can be handed to another
+ * process and rebuilt there without scanning, reading files or converting again.
+ *
+ * <p>An encoding starts with a magic number, a version and the fingerprint of the schema it was
+ * made for, followed by a value per slot. Strings, numbers, booleans and lists of those are
+ * encoded as they are. Any other value, such as a custom type, or a value of an option with rules
+ * to validate, is encoded as the raw values it was converted from and converted again when
+ * decoded, or if it is a default value as a marker to read the default again. Lengths and counts
+ * are unsigned variable length integers.
+ *
+ * @author Stephen Fox.
+ */
+final class ResultCodec {
+
+  private static final int MAGIC = 0x5343; // "SC"
+  private static final int VERSION = 2;
+
+  private static final int NULL = 0;
+  private static final int STRING = 1;
+  private static final int BOOLEAN = 2;
+  private static final int BYTE = 3;
+  private static final int SHORT = 4;
+  private static final int INTEGER = 5;
+  private static final int LONG = 6;
+  private static final int FLOAT = 7;
+  private static final int DOUBLE = 8;
+  private static final int LIST = 9;
+  private static final int RAW = 10;
+  private static final int DEFAULT = 11;
+
+  private ResultCodec() {}
+
+  /**
+   * Encode the result of a parse.
+   *
+   * @param schema The schema parsed.
+   * @param rawValues The raw values of the parse.
+   * @param values The parsed value of each slot.
+   * @return The encoding.
+   */
+  static byte[] encode(Schema schema, RawValues rawValues, Object[] values) {
+    final Output out = new Output();
+    out.write(MAGIC >>> 8);
+    out.write(MAGIC & 0xff);
+    out.write(VERSION);
+    out.writeLong(schema.fingerprint);
+    out.writeVarint(values.length);
+    for (int slot = 0; slot < values.length; slot++) {
+      // Values of options with rules are converted again when decoded, which checks the rules.
+      final boolean validated = schema.converters[slot] instanceof Validator;
+      if (isEncodable(values[slot]) && !(validated && rawValues.count(slot) > 0)) {
+        out.writeValue(values[slot]);
+      } else if (rawValues.count(slot) > 0) {
+        out.write(RAW);
+        out.writeVarint(rawValues.count(slot));
+        for (String value : rawValues.all(slot)) {
+          out.writeString(value);
+        }
+      } else {
+        out.write(DEFAULT);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decode the result of a parse.
+   *
+   * @param scythe The parser to convert raw values and read default values with.
+   * @param schema The schema to decode the values of.
+   * @param encoded The encoding.
+   * @return The parsed value of each slot, or null if the encoding was made for a different schema
+   *     or version.
+   * @throws IllegalArgumentException If the encoding is not valid.
+   */
+  static Object[] decode(Scythe scythe, Schema schema, byte[] encoded) {
+    final Input in = new Input(encoded);
+    if (encoded.length < 11
+        || (in.read() << 8 | in.read()) != MAGIC
+        || in.read() != VERSION
+        || in.readLong() != schema.fingerprint) {
+      return null;
+    }
+
+    final int slots = in.readVarint();
+    if (slots != schema.options.length) {
+      throw new IllegalArgumentException("Encoded result has " + slots + " options");
+    }
+    final Object[] values = new Object[slots];
+    final RawValues rawValues = new RawValues(slots);
+    for (int slot = 0; slot < slots; slot++) {
+      final int tag = in.read();
+      if (tag == RAW) {
+        for (int count = in.readVarint(); count > 0; count--) {
+          rawValues.add(slot, in.readString());
+        }
+        values[slot] = scythe.parseOption(schema, rawValues, slot);
+      } else if (tag == DEFAULT) {
+        values[slot] = scythe.parseOption(schema, rawValues, slot);
+      } else {
+        values[slot] = in.readValue(tag);
+      }
+    }
+    return values;
+  }
+
+  private static boolean isEncodable(Object value) {
+    if (value instanceof List) {
+      for (Object element : (List<?>) value) {
+        if (element == null || element instanceof List || !isEncodable(element)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return value == null
+        || value instanceof String
+        || value instanceof Boolean
+        || value instanceof Byte
+        || value instanceof Short
+        || value instanceof Integer
+        || value instanceof Long
+        || value instanceof Float
+        || value instanceof Double;
+  }
+
+  /**
+   * Compute the fingerprint of the options of a schema, which changes whenever the options change
+   * in a way that affects how their values are encoded.
+   */
+  static long fingerprint(Class<?> clazz, Option[] options) {
+    // Every field is terminated, so no two different schemas have the same description.
+    final StringBuilder description = new StringBuilder(clazz.getName()).append('\0');
+    for (Option option : options) {
+      description.append(option.name()).append('\0');
+      for (String alias : option.aliases()) {
+        description.append(alias).append('\0');
+      }
+      description
+          .append(option.aliases().length)
+          .append('\0')
+          .append(option.type().getName())
+          .append('\0')
+          .append(option.isFlag())
+          .append('\0')
+          .append(option.multiple())
+          .append('\0')
+          .append(option.nargs())
+          .append('\0')
+          .append(option.order())
+          .append('\0');
+    }
+
+    // 64 bit FNV-1a.
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < description.length(); i++) {
+      hash ^= description.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  private static final class Output extends ByteArrayOutputStream {
+
+    void writeVarint(long value) {
+      while ((value & ~0x7fL) != 0) {
+        write((int) (value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      write((int) value);
+    }
+
+    void writeInt(int value) {
+      for (int shift = 24; shift >= 0; shift -= 8) {
+        write(value >>> shift);
+      }
+    }
+
+    void writeLong(long value) {
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        write((int) (value >>> shift));
+      }
+    }
+
+    void writeString(String value) {
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarint(bytes.length);
+      write(bytes, 0, bytes.length);
+    }
+
+    void writeValue(Object value) {
+      if (value == null) {
+        write(NULL);
+      } else if (value instanceof String) {
+        write(STRING);
+        writeString((String) value);
+      } else if (value instanceof Boolean) {
+        write(BOOLEAN);
+        write((Boolean) value ? 1 : 0);
+      } else if (value instanceof Byte) {
+        write(BYTE);
+        write((Byte) value);
+      } else if (value instanceof Short) {
+        write(SHORT);
+        writeVarint(zigZag((Short) value));
+      } else if (value instanceof Integer) {
+        write(INTEGER);
+        writeVarint(zigZag((Integer) value));
+      } else if (value instanceof Long) {
+        write(LONG);
+        writeVarint(zigZag((Long) value));
+      } else if (value instanceof Float) {
+        write(FLOAT);
+        writeInt(Float.floatToIntBits((Float) value));
+      } else if (value instanceof Double) {
+        write(DOUBLE);
+        writeLong(Double.doubleToLongBits((Double) value));
+      } else {
+        final List<?> list = (List<?>) value;
+        write(LIST);
+        writeVarint(list.size());
+        for (Object element : list) {
+          writeValue(element);
+        }
+      }
+    }
+
+    private static long zigZag(long value) {
+      return value << 1 ^ value >> 63;
+    }
+  }
+
+  private static final class Input {
+    private final byte[] bytes;
+    private int position;
+
+    Input(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    int read() {
+      if (position >= bytes.length) {
+        throw new IllegalArgumentException("Encoded result is truncated");
+      }
+      return bytes[position++] & 0xff;
+    }
+
+    int readVarint() {
+      final long value = readVarLong();
+      if (value > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Encoded length " + value + " is too large");
+      }
+      return (int) value;
+    }
+
+    long readVarLong() {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        final int b = read();
+        value |= (long) (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Encoded integer is too long");
+    }
+
+    int readInt() {
+      int value = 0;
+      for (int i = 0; i < 4; i++) {
+        value = value << 8 | read();
+      }
+      return value;
+    }
+
+    long readLong() {
+      long value = 0;
+      for (int i = 0; i < 8; i++) {
+        value = value << 8 | read();
+      }
+      return value;
+    }
+
+    String readString() {
+      final int length = readVarint();
+      if (length > bytes.length - position) {
+        throw new IllegalArgumentException("Encoded result is truncated");
+      }
+      final String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+      position += length;
+      return value;
+    }
+
+    Object readValue(int tag) {
+      switch (tag) {
+        case NULL:
+          return null;
+        case STRING:
+          return readString();
+        case BOOLEAN:
+          return read() != 0;
+        case BYTE:
+          return (byte) read();
+        case SHORT:
+          return (short) unZigZag(readVarLong());
+        case INTEGER:
+          return (int) unZigZag(readVarLong());
+        case LONG:
+          return unZigZag(readVarLong());
+        case FLOAT:
+          return Float.intBitsToFloat(readInt());
+        case DOUBLE:
+          return Double.longBitsToDouble(readLong());
+        case LIST:
+          final int size = readVarint();
+          final List<Object> list = new ArrayList<>(Math.min(size, bytes.length - position));
+          for (int i = 0; i < size; i++) {
+            list.add(readValue(read()));
+          }
+          return list;
+        default:
+          throw new IllegalArgumentException("Unknown encoded value " + tag);
+      }
+    }
+
+    private static long unZigZag(long value) {
+      return value >>> 1 ^ -(value & 1);
+    }
+  }
+}
@@ -0,0 +1,353 @@
+package com.stephenfox.scythe;
+
+import static com.stephenfox.scythe.ReflectionUtil.getFieldAnnotations;
+import static com.stephenfox.scythe.ReflectionUtil.getMethodAnnotations;
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+
+import com.stephenfox.scythe.annotation.Constraint;
+import com.stephenfox.scythe.annotation.Option;
+
+import java.lang.annotation.ElementType;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The compiled form of the options declared on a class. A schema is built once per class and
+ * shared between every parse of that class, each option is given a slot (its index in {@link
+ * #options}) which the scanner and parser use in place of the option itself.
+ *
+ * @author Stephen Fox.
+ */
+final class Schema {
+
+  private static final Comparator<Option> OPTION_COMPARATOR =
+      Comparator.comparingInt(Option::order);
+
+  private static final ClassValue<Schema> SCHEMAS =
+      new ClassValue<Schema>() {
+        @Override
+        protected Schema computeValue(Class<?> type) {
+          return compile(type);
+        }
+      };
+
+  final Class<?> clazz;
+  final ElementType declaredAt;
+  final Method method;
+  final Option[] options;
+  final ConstraintSet constraints;
+  final Converter[] converters;
+  // Whether every option converts the same value to an equal result, so results can be cached.
+  final boolean deterministic;
+  // Identifies the options of the schema in encoded results.
+  final long fingerprint;
+  // The default value supplier of each slot, or null if no option has one.
+  final Class<?>[] defaultSuppliers;
+  // Whether any option name or alias does not start with a dash, such as `port`.
+  final boolean hasPlainNames;
+
+  // Open addressed table of every option name and alias, so a region of a token can be looked up
+  // without first copying it out into its own string.
+  private final String[] keys;
+  private final int[] keySlots;
+  // Slots for single character short names i.e `-v`, indexed by the character.
+  private final int[] shortSlots = new int[128];
+  // Open addressed table of option names and aliases without their leading dashes as UTF-8, these
+  // are the keys options are known by in configuration files.
+  private final byte[][] configKeys;
+  private final int[] configKeySlots;
+  // Rendered on first use.
+  private volatile String help;
+  // Built on first use, for abbreviated and case insensitive names.
+  private volatile OptionTrie trie;
+  private volatile OptionTrie caseInsensitiveTrie;
+
+  private Schema(
+      Class<?> clazz,
+      ElementType declaredAt,
+      Method method,
+      Option[] options,
+      List<Constraint> constraints) {
+    this.clazz = clazz;
+    this.declaredAt = declaredAt;
+    this.method = method;
+    this.options = options;
+
+    int keyCount = 0;
+    for (Option option : options) {
+      keyCount += 1 + option.aliases().length;
+    }
+    int capacity = 16;
+    while (capacity < keyCount * 2) {
+      capacity <<= 1;
+    }
+    this.converters = new Converter[options.length];
+    boolean deterministic = true;
+    for (int slot = 0; slot < options.length; slot++) {
+      converters[slot] = Validator.of(options[slot], Converters.of(options[slot].type()));
+      if (options[slot].enumSet()
+          && (!options[slot].multiple() || !options[slot].type().isEnum())) {
+        throw new IllegalArgumentException(
+            "enumSet only applies to multiple enum options, not " + options[slot].name());
+      }
+      deterministic &=
+          options[slot].deterministic() && Converters.isDeterministic(options[slot].type());
+    }
+    this.deterministic = deterministic;
+    this.fingerprint = ResultCodec.fingerprint(clazz, options);
+    this.defaultSuppliers = DefaultSuppliers.of(options);
+
+    this.keys = new String[capacity];
+    this.keySlots = new int[capacity];
+    this.configKeys = new byte[capacity][];
+    this.configKeySlots = new int[capacity];
+    Arrays.fill(shortSlots, -1);
+
+    boolean hasPlainNames = false;
+    for (int slot = 0; slot < options.length; slot++) {
+      index(options[slot].name(), slot);
+      indexConfigKey(options[slot].name(), slot);
+      hasPlainNames |= !options[slot].name().startsWith("-");
+      for (String alias : options[slot].aliases()) {
+        index(alias, slot);
+        indexConfigKey(alias, slot);
+        hasPlainNames |= !alias.startsWith("-");
+      }
+    }
+    this.hasPlainNames = hasPlainNames;
+    this.constraints = ConstraintSet.compile(constraints, this);
+  }
+
+  /**
+   * Get the schema for a class, compiling it on first use.
+   *
+   * @param clazz The class declaring the options.
+   * @return The compiled schema.
+   */
+  static Schema of(Class<?> clazz) {
+    return SCHEMAS.get(clazz);
+  }
+
+  /**
+   * Compile a schema for options built elsewhere rather than read from a class, as if they were
+   * declared at a field of the class. The schema is not cached.
+   *
+   * @param clazz The class default values are read from.
+   * @param options The options.
+   * @return The compiled schema.
+   */
+  static Schema of(Class<?> clazz, Option[] options) {
+    return new Schema(clazz, FIELD, null, options, Collections.emptyList());
+  }
+
+  private static Schema compile(Class<?> clazz) {
+    // Options declared at a field take precedence over those declared at a method.
+    final List<Option> fieldAnnotations = getFieldAnnotations(Option.class, clazz);
+    if (fieldAnnotations.size() > 0) {
+      return new Schema(
+          clazz,
+          FIELD,
+          null,
+          fieldAnnotations.toArray(new Option[0]),
+          getFieldAnnotations(Constraint.class, clazz));
+    }
+
+    final Optional<ReflectionUtil.MethodAnnotationPair<Option>> methodAnnotations =
+        getMethodAnnotations(Option.class, clazz);
+    if (methodAnnotations.isPresent()) {
+      final ReflectionUtil.MethodAnnotationPair<Option> pair = methodAnnotations.get();
+      for (Option option : pair.annotations) {
+        if (option.order() == -1) {
+          throw new SortOrderException(
+              "No sort order defined for option: "
+                  + option.name()
+                  + ". Please ensure all options defined at method level have "
+                  + "an order set.");
+        } else if (option.order() < -1) {
+          throw new SortOrderException("Invalid order " + option.order() + ", orders must be >= 0");
+        }
+      }
+      final Option[] options = pair.annotations.toArray(new Option[0]);
+      Arrays.sort(options, OPTION_COMPARATOR);
+      return new Schema(
+          clazz,
+          METHOD,
+          pair.method,
+          options,
+          Arrays.asList(pair.method.getAnnotationsByType(Constraint.class)));
+    }
+
+    return new Schema(clazz, null, null, new Option[0], Collections.emptyList());
+  }
+
+  /** @return The help message for the options, rendered once per schema. */
+  String help() {
+    String help = this.help;
+    if (help == null) {
+      help = HelpFormatter.render(options);
+      this.help = help;
+    }
+    return help;
+  }
+
+  /**
+   * Get the trie of option names, building it on first use.
+   *
+   * @param ignoreCase Whether the trie matches names regardless of case.
+   * @return The trie.
+   */
+  OptionTrie trie(boolean ignoreCase) {
+    OptionTrie trie = ignoreCase ? caseInsensitiveTrie : this.trie;
+    if (trie == null) {
+      trie = new OptionTrie(options, ignoreCase);
+      if (ignoreCase) {
+        caseInsensitiveTrie = trie;
+      } else {
+        this.trie = trie;
+      }
+    }
+    return trie;
+  }
+
+  /**
+   * Look up the slot of the option with the name or alias held in {@code token} between {@code
+   * from} (inclusive) and {@code to} (exclusive).
+   *
+   * @return The slot of the option, or -1 if no option has that name.
+   */
+  int slotOf(String token, int from, int to) {
+    final int length = to - from;
+    if (length == 2 && token.charAt(from) == '-' && token.charAt(from + 1) < shortSlots.length) {
+      return shortSlotOf(token.charAt(from + 1));
+    }
+
+    final int mask = keys.length - 1;
+    for (int i = spread(hash(token, from, to)) & mask; ; i = (i + 1) & mask) {
+      final String key = keys[i];
+      if (key == null) {
+        return -1;
+      }
+      if (key.length() == length && key.regionMatches(0, token, from, length)) {
+        return keySlots[i];
+      }
+    }
+  }
+
+  /**
+   * Look up the slot of the option with the single character short name {@code -c}.
+   *
+   * @return The slot of the option, or -1 if no option has that name.
+   */
+  int shortSlotOf(char c) {
+    return c < shortSlots.length ? shortSlots[c] : -1;
+  }
+
+  /**
+   * Look up the slot of the option with the configuration key held in {@code buffer} between {@code
+   * from} (inclusive) and {@code to} (exclusive). The key of an option is its name or any of its
+   * aliases without the leading dashes, for example `port` for `--port`.
+   *
+   * @return The slot of the option, or -1 if no option has that key.
+   */
+  int configSlotOf(ByteBuffer buffer, int from, int to) {
+    final int length = to - from;
+    final int mask = configKeys.length - 1;
+    for (int i = spread(hash(buffer, from, to)) & mask; ; i = (i + 1) & mask) {
+      final byte[] key = configKeys[i];
+      if (key == null) {
+        return -1;
+      }
+      if (key.length == length && regionMatches(key, buffer, from)) {
+        return configKeySlots[i];
+      }
+    }
+  }
+
+  /**
+   * Strip the leading dashes from an option name or alias, i.e `--port` becomes `port`.
+   *
+   * @param name The option name or alias.
+   * @return The name without dashes, or the name itself if it is only dashes.
+   */
+  static String stripDashes(String name) {
+    if (name.startsWith("--") && name.length() > 2) {
+      return name.substring(2);
+    } else if (name.startsWith("-") && name.length() > 1) {
+      return name.substring(1);
+    }
+    return name;
+  }
+
+  private void index(String key, int slot) {
+    if (key.length() == 2 && key.charAt(0) == '-' && key.charAt(1) < shortSlots.length) {
+      if (shortSlots[key.charAt(1)] == -1) {
+        shortSlots[key.charAt(1)] = slot;
+      }
+      return;
+    }
+
+    final int mask = keys.length - 1;
+    for (int i = spread(key.hashCode()) & mask; ; i = (i + 1) & mask) {
+      if (keys[i] == null) {
+        keys[i] = key;
+        keySlots[i] = slot;
+        return;
+      }
+      if (keys[i].equals(key)) {
+        return; // The first option declaring a name keeps it.
+      }
+    }
+  }
+
+  private void indexConfigKey(String name, int slot) {
+    final byte[] key = stripDashes(name).getBytes(StandardCharsets.UTF_8);
+    final int mask = configKeys.length - 1;
+    for (int i = spread(hash(ByteBuffer.wrap(key), 0, key.length)) & mask; ; i = (i + 1) & mask) {
+      if (configKeys[i] == null) {
+        configKeys[i] = key;
+        configKeySlots[i] = slot;
+        return;
+      }
+      if (Arrays.equals(configKeys[i], key)) {
+        return;
+      }
+    }
+  }
+
+  private static boolean regionMatches(byte[] key, ByteBuffer buffer, int from) {
+    for (int i = 0; i < key.length; i++) {
+      if (key[i] != buffer.get(from + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int hash(ByteBuffer buffer, int from, int to) {
+    int h = 0;
+    for (int i = from; i < to; i++) {
+      h = 31 * h + buffer.get(i);
+    }
+    return h;
+  }
+
+  // Same as String#hashCode so keys and token regions hash alike.
+  private static int hash(String token, int from, int to) {
+    int h = 0;
+    for (int i = from; i < to; i++) {
+      h = 31 * h + token.charAt(i);
+    }
+    return h;
+  }
+
+  private static int spread(int h) {
+    return h ^ (h >>> 16);
+  }
+}
@@ -1,25 +1,24 @@
 package com.stephenfox.scythe;
 
 import static com.stephenfox.scythe.ReflectionUtil.getDefaultFieldValue;
-import static com.stephenfox.scythe.ReflectionUtil.getFieldAnnotations;
-import static com.stephenfox.scythe.ReflectionUtil.getMethodAnnotations;
-import static java.lang.System.exit;
 import static java.lang.annotation.ElementType.FIELD;
 import static java.lang.annotation.ElementType.METHOD;
 
 import com.stephenfox.scythe.annotation.Option;
 
-import java.lang.annotation.ElementType;
-import java.lang.reflect.Constructor;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.TreeMap;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -29,10 +28,16 @@ import java.util.stream.Collectors;
  */
 public class Scythe {
 
-  private static final Comparator<Option> OPTION_COMPARATOR =
-      Comparator.comparingInt(Option::order);
   private final String[] cliArgs;
   private final Class<?> clazz;
+  private final List<ConfigSource> configSources = new ArrayList<>(0);
+  private Map<String, String> environment = System.getenv();
+  private Appendable helpOutput = System.out;
+  private boolean interpolate;
+  private boolean abbreviations;
+  private boolean ignoreCase;
+  private ParseMetrics metrics;
+  private ParseCache cache;
 
   public static Scythe cli(String[] cliArgs, Class<?> mainClass) {
     return new Scythe(cliArgs, mainClass);
@@ -43,148 +48,547 @@ public class Scythe {
     this.clazz = clazz;
   }
 
+  /**
+   * Create a parser for other command line arguments, sharing the configuration of this parser.
+   *
+   * @param cliArgs The command line arguments.
+   * @return The new parser.
+   */
+  Scythe withArgs(String[] cliArgs) {
+    final Scythe scythe = new Scythe(cliArgs, clazz);
+    scythe.configSources.addAll(configSources);
+    scythe.environment = environment;
+    scythe.helpOutput = helpOutput;
+    scythe.interpolate = interpolate;
+    scythe.abbreviations = abbreviations;
+    scythe.ignoreCase = ignoreCase;
+    scythe.metrics = metrics;
+    scythe.cache = cache;
+    return scythe;
+  }
+
+  /**
+   * Add configuration files option values are read from when they are given neither in the command
+   * line arguments nor the environment. Files are consulted in the order they are added, the first
+   * file with a value for an option is used. Files ending in {@code .json} are read as a JSON
+   * object, any other file is read as a properties file. In either case the key of an option is
+   * its name or one of its aliases without the leading dashes.
+   *
+   * <pre>{@code
+   * Scythe.cli(args, Main.class).config(Paths.get("app.json"), Paths.get("/etc/app.properties"));
+   * }</pre>
+   *
+   * @param paths The paths of the configuration files.
+   * @return This instance.
+   */
+  public Scythe config(Path... paths) {
+    for (Path path : paths) {
+      configSources.add(new ConfigSource(path));
+    }
+    return this;
+  }
+
+  /** Replace the environment options are read from, by default {@link System#getenv()}. */
+  Scythe environment(Map<String, String> environment) {
+    this.environment = environment;
+    return this;
+  }
+
+  /**
+   * Resolve references within option values and {@code String} default values. {@code ${NAME}} is
+   * replaced with the environment variable {@code NAME}, {@code ${sys:name}} with the system
+   * property {@code name} and {@code ${opt:--name}} with the value of the option {@code --name}.
+   * {@code $${} gives a literal {@code ${}.
+   *
+   * <pre>{@code
+   * // args = ["--root", "${HOME}/app", "--logs", "${opt:--root}/logs"]
+   * Scythe.cli(args, Main.class).interpolate().parse();
+   * }</pre>
+   *
+   * @return This instance.
+   */
+  public Scythe interpolate() {
+    this.interpolate = true;
+    return this;
+  }
+
+  /**
+   * Accept any unique prefix of a long option name or alias in place of the whole, for example
+   * {@code --verb} for {@code --verbose}. An exact name is always preferred, so {@code --port} is
+   * not ambiguous with {@code --portal}. A prefix of more than one option is an error.
+   *
+   * @return This instance.
+   */
+  public Scythe abbreviations() {
+    this.abbreviations = true;
+    return this;
+  }
+
+  /**
+   * Match option names and aliases regardless of case, for example {@code --VERBOSE} for {@code
+   * --verbose}. A name that matches exactly is always preferred, so {@code -v} and {@code -V} can
+   * still be different options when given exactly.
+   *
+   * @return This instance.
+   */
+  public Scythe ignoreCase() {
+    this.ignoreCase = true;
+    return this;
+  }
+
+  /**
+   * Record usage and latency metrics for every parse by this parser. Without metrics nothing is
+   * recorded.
+   *
+   * @param metrics The metrics to record to, which may be shared with other parsers.
+   * @return This instance.
+   */
+  public Scythe metrics(ParseMetrics metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+
+  /**
+   * Reuse the results of earlier parses with the same command line arguments, environment and
+   * configuration files, held in a cache which may be shared with other parsers. A cached result
+   * is returned without scanning or converting anything again, for options declared at a field it
+   * is an unmodifiable map with unmodifiable lists. For options declared at a method the method is
+   * still invoked for every parse.
+   *
+   * @param cache The cache of results.
+   * @return This instance.
+   */
+  public Scythe cache(ParseCache cache) {
+    this.cache = cache;
+    return this;
+  }
+
+  /**
+   * Set where the help message is written when the first command line argument is `-h` or
+   * `--help`, by default {@link System#out}.
+   *
+   * @param helpOutput Where to write the help message.
+   * @return This instance.
+   */
+  public Scythe helpOutput(Appendable helpOutput) {
+    this.helpOutput = helpOutput;
+    return this;
+  }
+
+  /** @return The help message describing each option. */
+  public String help() {
+    return Schema.of(clazz).help();
+  }
+
+  /**
+   * Parse the options. If the first command line argument is `-h` or `--help` the help message is
+   * written to the help output instead, and nothing is parsed.
+   *
+   * @return For options declared at a field, a mapping of each option name and alias to its value.
+   *     Otherwise, or if the help message was written, null.
+   * @throws RuntimeException If the method the options are declared at throws, its exception, or
+   *     for a checked exception one wrapping it.
+   */
   public Map<String, Object> parse() {
+    final Schema schema = Schema.of(clazz);
+    if (metrics == null) {
+      return parse(schema);
+    }
+
+    final long start = System.nanoTime();
+    try {
+      return parse(schema);
+    } catch (RuntimeException e) {
+      metrics.recordError(e);
+      throw e;
+    } finally {
+      metrics.recordParse(System.nanoTime() - start);
+    }
+  }
+
+  private Map<String, Object> parse(Schema schema) {
     if (cliArgs.length > 0 && (cliArgs[0].equals("-h") || cliArgs[0].equals("--help"))) {
-      final List<Option> fieldAnnotations = getFieldAnnotations(Option.class, clazz);
-      if (fieldAnnotations.size() > 0) {
-        printHelpMessage(fieldAnnotations);
+      if (schema.options.length > 0) {
+        try {
+          helpOutput.append(schema.help());
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        return null;
       }
-
-      final Optional<ReflectionUtil.MethodAnnotationPair<Option>> methodAnnotations =
-          getMethodAnnotations(Option.class, clazz);
-      methodAnnotations.ifPresent(
-          optionMethodAnnotationPair -> printHelpMessage(optionMethodAnnotationPair.annotations));
     }
 
+    final ParseCache.Key key = cacheKey(schema);
+
     // If annotations were declared via a field, parse them.
-    final List<Option> fieldAnnotations = getFieldAnnotations(Option.class, clazz);
-    if (fieldAnnotations.size() > 0) {
-      final Map<Option, Object> parsedOptions = parseOptions(fieldAnnotations, FIELD);
-      final Map<String, Object> map = new HashMap<>(parsedOptions.size());
-      for (Map.Entry<Option, Object> entry : parsedOptions.entrySet()) {
-        // Put for the name.
-        map.put(entry.getKey().name(), entry.getValue());
-        // Now put for each of its alias.
-        for (String alias : entry.getKey().aliases()) {
-          map.put(alias, entry.getValue());
-        }
+    if (schema.declaredAt == FIELD) {
+      if (key != null) {
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> cached =
+            (Map<String, Object>)
+                cache.get(
+                    key,
+                    () -> Collections.unmodifiableMap(toMap(schema, parseUnmodifiable(schema))));
+        return cached;
       }
-      return map;
+      return toMap(schema, parseOptions(schema, readRawValues(schema, metrics)));
     }
 
     // If annotations were declared via a method, parse them.
-    final Optional<ReflectionUtil.MethodAnnotationPair<Option>> methodAnnotations =
-        getMethodAnnotations(Option.class, clazz);
-    if (methodAnnotations.isPresent()) {
-      final ReflectionUtil.MethodAnnotationPair<Option> methodAnnotationPair =
-          methodAnnotations.get();
-      final Map<Option, Object> parsedOptions =
-          parseOptions(methodAnnotationPair.annotations, METHOD);
-      final Object[] values = parsedOptions.values().toArray();
-
-      try {
-        methodAnnotationPair.method.invoke(null, values);
-      } catch (IllegalAccessException | InvocationTargetException e) {
-        e.printStackTrace();
+    if (schema.declaredAt == METHOD) {
+      final Object[] values =
+          key != null
+              ? ((Object[]) cache.get(key, () -> parseUnmodifiable(schema))).clone()
+              : parseOptions(schema, readRawValues(schema, metrics));
+
+      invoke(schema, values);
+    }
+
+    return null;
+  }
+
+  /**
+   * Invoke the method the options are declared at. An unchecked exception thrown by the method is
+   * rethrown as it is, a checked exception is wrapped in a {@link RuntimeException}.
+   */
+  private static void invoke(Schema schema, Object[] values) {
+    try {
+      schema.method.invoke(null, values);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Unable to invoke " + schema.method, e);
+    } catch (InvocationTargetException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
       }
+      throw new RuntimeException(cause);
     }
+  }
 
+  /**
+   * Parse the options and encode the result, so another process given the same options can rebuild
+   * it with {@link #parse(byte[])} instead of parsing again. Options declared at a method are
+   * parsed but the method is not invoked. The encoding is binary, use {@link java.util.Base64} to
+   * pass it through an environment variable.
+   *
+   * <pre>{@code
+   * final byte[] encoded = Scythe.cli(args, Main.class).encode();
+   * // In the child process.
+   * final Map<String, Object> options = Scythe.cli(args, Main.class).parse(encoded);
+   * }</pre>
+   *
+   * @return The encoded result.
+   */
+  public byte[] encode() {
+    final Schema schema = Schema.of(clazz);
+    final RawValues rawValues = readRawValues(schema);
+    return ResultCodec.encode(schema, rawValues, parseOptions(schema, rawValues));
+  }
+
+  /**
+   * Rebuild the result of a parse encoded by {@link #encode()}. Values of strings, numbers and
+   * flags are decoded as they are, values of other types are converted again from their raw values.
+   * If the encoding was made for different options, for example by another version of the
+   * application, the command line arguments of this parser are parsed instead.
+   *
+   * @param encoded The encoded result.
+   * @return As {@link #parse()}.
+   * @throws IllegalArgumentException If the encoding is not valid.
+   */
+  public Map<String, Object> parse(byte[] encoded) {
+    final Schema schema = Schema.of(clazz);
+    final Object[] values = ResultCodec.decode(this, schema, encoded);
+    if (values == null) {
+      return parse();
+    }
+
+    if (schema.declaredAt == FIELD) {
+      return toMap(schema, values);
+    } else if (schema.declaredAt == METHOD) {
+      invoke(schema, values);
+    }
     return null;
   }
 
-  private static void printHelpMessage(List<Option> options) {
-    final StringBuilder prefix = new StringBuilder();
-    final StringBuilder help = new StringBuilder();
+  /**
+   * Parse the options declared at a method, then invoke the method once for each value of a
+   * multiple option, with up to {@code concurrency} invocations running at once. Each invocation is
+   * given a list of its single value for that option, or an {@code EnumSet} for an {@code enumSet}
+   * option, and the same values for every other option.
+   *
+   * <pre>{@code
+   * // args = ["check", "--host", "a", "--host", "b", "--host", "c"]
+   * System.exit(Scythe.cli(args, Main.class).fanOut("--host", 8).exitCode());
+   * }</pre>
+   *
+   * @param name The name or alias of the multiple option to fan out over.
+   * @param concurrency The most invocations to run at once.
+   * @return The results and errors of every invocation and their combined exit code.
+   * @throws IllegalStateException If the options are not declared at a method.
+   * @throws IllegalArgumentException If there is no multiple option with the name, or the
+   *     concurrency is not positive.
+   */
+  public FanOutResult fanOut(String name, int concurrency) {
+    final Schema schema = Schema.of(clazz);
+    if (schema.declaredAt != METHOD) {
+      throw new IllegalStateException("Only options declared at a method can be fanned out.");
+    }
+    final int slot = schema.slotOf(name, 0, name.length());
+    if (slot < 0 || !schema.options[slot].multiple()) {
+      throw new IllegalArgumentException("No multiple option " + name + " to fan out over");
+    }
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("Concurrency must be > 0, was " + concurrency);
+    }
 
-    for (Option option : options) {
-      prefix.append(option.name());
-      prefix.append(", ");
-      for (String alias : option.aliases()) {
-        prefix.append(alias);
-        prefix.append(", ");
+    final Object[] values = parseOptions(schema, readRawValues(schema));
+    return FanOutResult.run(schema.method, values, slot, concurrency);
+  }
+
+  /**
+   * Close every option value that holds a resource, such as the {@code InputStream} and {@code
+   * ReadableByteChannel} option types. Values within lists are closed too. Every value is closed
+   * even if closing one fails.
+   *
+   * <pre>{@code
+   * final Map<String, Object> options = Scythe.cli(args, Main.class).parse();
+   * try {
+   *   read((InputStream) options.get("--input"));
+   * } finally {
+   *   Scythe.close(options);
+   * }
+   * }</pre>
+   *
+   * @param parsedOptions The result of {@link #parse()}.
+   * @throws IOException The first failure to close a value, with any later failures suppressed.
+   */
+  public static void close(Map<String, Object> parsedOptions) throws IOException {
+    // Aliases map to the same value, so only close each value once.
+    final Set<Object> closed = Collections.newSetFromMap(new IdentityHashMap<>());
+    IOException failure = null;
+    for (Object value : parsedOptions.values()) {
+      final Iterable<?> values =
+          value instanceof List ? (List<?>) value : Collections.singletonList(value);
+      for (Object element : values) {
+        if (!(element instanceof Closeable) || !closed.add(element)) {
+          continue;
+        }
+        try {
+          ((Closeable) element).close();
+        } catch (IOException e) {
+          if (failure == null) {
+            failure = e;
+          } else {
+            failure.addSuppressed(e);
+          }
+        }
       }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
 
-      prefix.deleteCharAt(prefix.length() - 1);
-      prefix.deleteCharAt(prefix.length() - 1);
-      prefix.append(" ");
-      final String[] typeSplit = option.type().getName().split("\\.");
-      prefix.append(typeSplit[typeSplit.length - 1 < 0 ? 0 : typeSplit.length - 1]);
-      System.out.printf("%-50s%s%n", prefix.toString(), option.help());
-      prefix.setLength(0);
+  /**
+   * Parse the options declared at a field, then watch the configuration files for changes. Each
+   * time a file changes only the options whose values changed are parsed again, and a new result
+   * is published to the subscribers of the returned watcher.
+   *
+   * <pre>{@code
+   * final ConfigWatcher watcher = Scythe.cli(args, Main.class).config(path).watch();
+   * watcher.subscribe(options -> server.setPort((Integer) options.get("--port")));
+   * }</pre>
+   *
+   * @return The watcher, which must be closed to stop watching.
+   * @throws IllegalStateException If the options are not declared at a field.
+   * @throws UncheckedIOException If the configuration files cannot be watched.
+   */
+  public ConfigWatcher watch() {
+    final Schema schema = Schema.of(clazz);
+    if (schema.declaredAt != FIELD) {
+      throw new IllegalStateException("Only options declared at a field can be watched.");
+    }
+
+    final List<Path> paths = new ArrayList<>(configSources.size());
+    for (ConfigSource configSource : configSources) {
+      paths.add(configSource.path);
     }
+    try {
+      return new ConfigWatcher(this, schema, paths);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Create an interactive shell which invokes the method the options are declared at once for each
+   * line read. The command line arguments given to this parser are ignored, but its environment and
+   * configuration files are used for every line.
+   *
+   * <pre>{@code
+   * Scythe.cli(args, Main.class).shell().prompt("admin> ").run();
+   * }</pre>
+   *
+   * @return The shell.
+   * @throws IllegalStateException If the options are not declared at a method.
+   */
+  public Shell shell() {
+    final Schema schema = Schema.of(clazz);
+    if (schema.declaredAt != METHOD) {
+      throw new IllegalStateException("Only options declared at a method can be run in a shell.");
+    }
+    return new Shell(this, schema);
+  }
 
-    exit(0);
+  /**
+   * Read the raw values of the options of a schema. Values are taken from the command line
+   * arguments, then the environment, then the configuration files. The constraints of the schema
+   * are checked against the values found, then any references in them are resolved.
+   *
+   * @param schema The schema of the option annotations declared.
+   * @return The raw values of each option.
+   * @throws ConstraintViolationException If the options given break a constraint.
+   */
+  RawValues readRawValues(Schema schema) {
+    return readRawValues(schema, null);
+  }
+
+  /** As {@link #readRawValues(Schema)}, recording the option names given to any metrics. */
+  private RawValues readRawValues(Schema schema, ParseMetrics metrics) {
+    final RawValues rawValues =
+        ArgumentScanner.scan(
+            cliArgs,
+            schema,
+            abbreviations || ignoreCase ? schema.trie(ignoreCase) : null,
+            abbreviations,
+            metrics != null ? metrics::recordName : null);
+    fillFromEnvironment(schema, rawValues);
+    for (ConfigSource configSource : configSources) {
+      if (!rawValues.hasEmptySlot()) {
+        break; // No need to read files which cannot contribute.
+      }
+      configSource.fill(schema, rawValues);
+    }
+    schema.constraints.check(schema, rawValues);
+    return interpolate ? Interpolator.resolve(schema, rawValues, environment) : rawValues;
   }
 
   /**
-   * Parse the command line arguments for the option annotations declared.
+   * Parse the options of a schema, falling back to default values for options without a raw value.
+   * Default value suppliers needed by more than one option are called concurrently.
    *
-   * @param options The option annotations declared.
-   * @return A mapping of an {@code Option} to the value found in the command line arguments.
+   * @param schema The schema of the option annotations declared.
+   * @param rawValues The raw values of each option.
+   * @return The parsed value of each option, indexed by its slot in the schema. For options
+   *     declared at a method this is the order they are passed to the method.
    */
-  private Map<Option, Object> parseOptions(List<Option> options, ElementType declaredAt) {
-    final Map<Option, Object> mappings;
-    if (declaredAt == METHOD) {
-      mappings = new TreeMap<>(OPTION_COMPARATOR);
-      for (Option option : options) {
-        if (option.order() == -1) {
-          throw new SortOrderException(
-              "No sort order defined for option: "
-                  + option.name()
-                  + ". Please ensure all options defined at method level have "
-                  + "an order set.");
-        } else if (option.order() < -1) {
-          throw new SortOrderException("Invalid order " + option.order() + ", orders must be >= 0");
+  private Object[] parseOptions(Schema schema, RawValues rawValues) {
+    final Object[] values = new Object[schema.options.length];
+    final boolean[] supplied =
+        schema.defaultSuppliers == null ? null : DefaultSuppliers.supply(schema, rawValues, values);
+    for (int slot = 0; slot < values.length; slot++) {
+      if (supplied != null && supplied[slot]) {
+        if (metrics != null) {
+          metrics.recordDefault(schema.options[slot]);
         }
-        mappings.put(option, parseOption(cliArgs, option));
+      } else {
+        values[slot] = parseOption(schema, rawValues, slot);
       }
-    } else {
-      mappings = new HashMap<>(options.size());
-      for (Option option : options) {
-        mappings.put(option, parseOption(cliArgs, option));
+    }
+    return values;
+  }
+
+  /** @return The key to cache the result of this parse under, or null if it is not cached. */
+  private ParseCache.Key cacheKey(Schema schema) {
+    if (cache == null || interpolate || !schema.deterministic) {
+      return null;
+    }
+    final int flags = (abbreviations ? 1 : 0) | (ignoreCase ? 2 : 0);
+    return ParseCache.key(schema, cliArgs, environment, configSources, flags);
+  }
+
+  /** Parse the options of a schema, with every collection of values made unmodifiable. */
+  private Object[] parseUnmodifiable(Schema schema) {
+    final Object[] values = parseOptions(schema, readRawValues(schema, metrics));
+    for (int slot = 0; slot < values.length; slot++) {
+      values[slot] = unmodifiable(values[slot]);
+    }
+    return values;
+  }
+
+  /** @return The value, or an unmodifiable view of it if it is a list or set of values. */
+  static Object unmodifiable(Object value) {
+    if (value instanceof List) {
+      return Collections.unmodifiableList((List<?>) value);
+    } else if (value instanceof Set) {
+      return Collections.unmodifiableSet((Set<?>) value);
+    }
+    return value;
+  }
+
+  /** Map the name and every alias of each option to its parsed value. */
+  static Map<String, Object> toMap(Schema schema, Object[] parsedOptions) {
+    final Map<String, Object> map = new HashMap<>(parsedOptions.length);
+    for (int slot = 0; slot < parsedOptions.length; slot++) {
+      final Option option = schema.options[slot];
+      // Put for the name.
+      map.put(option.name(), parsedOptions[slot]);
+      // Now put for each of its alias.
+      for (String alias : option.aliases()) {
+        map.put(alias, parsedOptions[slot]);
       }
     }
+    return map;
+  }
 
-    return mappings;
+  private void fillFromEnvironment(Schema schema, RawValues rawValues) {
+    for (int slot = 0; slot < schema.options.length; slot++) {
+      final String env = schema.options[slot].env();
+      if (!env.isEmpty() && rawValues.count(slot) == 0) {
+        final String value = environment.get(env);
+        if (value != null) {
+          rawValues.add(slot, value);
+        }
+      }
+    }
   }
 
-  @SuppressWarnings("unchecked")
-  private Object parseOption(String[] cliArgs, Option option) {
+  /**
+   * Parse the value of a single option, falling back to its default value if it has no raw value.
+   *
+   * @param schema The schema of the option annotations declared.
+   * @param rawValues The raw values of each option.
+   * @param slot The slot of the option to parse.
+   * @return The parsed value.
+   */
+  Object parseOption(Schema schema, RawValues rawValues, int slot) {
+    final Option option = schema.options[slot];
+    if (schema.defaultSuppliers != null
+        && schema.defaultSuppliers[slot] != null
+        && rawValues.count(slot) == 0) {
+      if (metrics != null) {
+        metrics.recordDefault(option);
+      }
+      return DefaultSuppliers.get(schema, rawValues, slot);
+    }
     if (option.multiple()) {
-      final List<String> optionValueStrings = getMultipleOptionValuesFromCliArgs(cliArgs, option);
-      if (optionValueStrings.size() > 0) {
-        final List<Object> optionValues = new ArrayList<>(optionValueStrings.size());
-        final Class<?> type = option.type();
-        if (Number.class.isAssignableFrom(type)) {
-          for (String value : optionValueStrings) {
-            optionValues.add(parseNumber((Class<? extends Number>) type, value));
-          }
-        } else if (String.class.isAssignableFrom(type)) {
-          optionValues.addAll(optionValueStrings);
-        } else {
-          final Constructor<?> constructor;
-          try {
-            constructor = type.getDeclaredConstructor(String.class);
-          } catch (NoSuchMethodException e) {
-            throw new RuntimeException(e);
-          }
-
-          for (String value : optionValueStrings) {
-            try {
-              // TODO: Maybe put this in reflect util.
-              constructor.setAccessible(true);
-              optionValues.add(constructor.newInstance(value));
-            } catch (InstantiationException
-                | IllegalAccessException
-                | InvocationTargetException e) {
-              throw new RuntimeException(e);
-            }
-          }
+      if (rawValues.count(slot) > 0) {
+        if (option.isFlag()) {
+          throw new IllegalArgumentException("Cannot have multiple values for flags.");
         }
-        return optionValues;
+
+        final List<Object> values = convertAll(schema, slot, rawValues.all(slot));
+        return option.enumSet() ? EnumConverter.toSet(option.type(), values) : values;
+      } else if (option.required()) {
+        throw new RequiredOptionException("Required option " + option.name() + " not found");
       }
     } else {
-      final String optionValue = getSingleOptionValueFromCliArgs(cliArgs, option);
+      String optionValue = rawValues.first(slot);
+      if (optionValue == null && option.isFlag()) {
+        optionValue = "false"; // No flag was found. Therefore the flag is false.
+      }
 
       if (optionValue == null) {
         final List<String> optionNameAndAliases = new ArrayList<>(1 + option.aliases().length);
@@ -193,6 +597,9 @@ public class Scythe {
 
         final Object defaultValue = getDefaultFieldValue(clazz, optionNameAndAliases);
         if (defaultValue != null) {
+          if (metrics != null) {
+            metrics.recordDefault(option);
+          }
           return defaultValue;
         } else if (option.required()) {
           throw new RequiredOptionException("Required option " + option.name() + " not found");
@@ -205,144 +612,51 @@ public class Scythe {
         return parseBoolean(optionValue);
       }
 
-      final Class<?> type = option.type();
-      if (Number.class.isAssignableFrom(type)) {
-        if (option.nargs() > 0) {
-          final String[] numberStrings = optionValue.split(" ");
-          correctNargs(option, numberStrings);
-          final List<Number> numbers = new ArrayList<>(numberStrings.length);
-
-          for (String numberString : numberStrings) {
-            numbers.add(parseNumber((Class<? extends Number>) type, numberString));
-          }
-          return numbers;
-        }
-        return parseNumber((Class<? extends Number>) type, optionValue);
-      } else if (String.class.isAssignableFrom(type)) {
-        if (option.nargs() > 0) {
-          final String[] strings = optionValue.split(" ");
-          correctNargs(option, strings);
-
-          return Arrays.asList(strings);
-        }
-        return optionValue;
-      } else {
-        if (option.nargs() > 0) {
+      if (option.nargs() > 0) {
+        final Class<?> type = option.type();
+        if (!Number.class.isAssignableFrom(type) && !String.class.isAssignableFrom(type)) {
           throw new UnsupportedOperationException(
               "Currently custom types are not supported with `nargs`");
-        } else {
-          try {
-            final Constructor<?> constructor = type.getDeclaredConstructor(String.class);
-            constructor.setAccessible(true);
-            return constructor.newInstance(optionValue);
-          } catch (InstantiationException
-              | IllegalAccessException
-              | InvocationTargetException
-              | NoSuchMethodException e) {
-            throw new RuntimeException(e);
-          }
-        }
-      }
-    }
-
-    return null;
-  }
-
-  /**
-   * Get the value for a single option from the passed command line arguments, this also includes
-   * options that are multi valued.
-   *
-   * @param args The command line arguments.
-   * @param option The option to get from the cli args.
-   * @return The string representation of the option value.
-   */
-  private static String getSingleOptionValueFromCliArgs(String[] args, Option option) {
-    final String optionName = option.name();
-
-    for (int i = 0; i < args.length; i++) {
-      final String argName = args[i];
-      if (argName.equals(optionName) || equalsAnyAlias(argName, option)) {
-        if (option.isFlag()) {
-          return "true";
         }
 
-        if (i + 2 > args.length) {
-          throw new IllegalArgumentException("Option values must appear after the option name");
+        final String[] strings = optionValue.split(" ");
+        correctNargs(option, strings);
+        if (String.class.isAssignableFrom(type)
+            && !option.intern()
+            && !Validator.hasRules(option)) {
+          return Arrays.asList(strings);
         }
 
-        return args[i + 1];
+        return convertAll(schema, slot, Arrays.asList(strings));
       }
+      return schema.converters[slot].convert(optionValue);
     }
-    if (option.isFlag()) {
-      return "false"; // No flag was found. Therefore the flag is false.
-    }
-    return null;
-  }
 
-  private static boolean equalsAnyAlias(String argName, Option option) {
-    for (String alias : option.aliases()) {
-      if (alias.equals(argName)) {
-        return true;
-      }
-    }
-    return false;
+    return null;
   }
 
   /**
-   * Retrieve multiple option value pairs. For example --env HOST --env PORT
-   *
-   * @param args The command line args.
-   * @param option The option to retrieve.
-   * @return A list of all values that appeared for each occurence of the option.
+   * Convert the values of a multiple or nargs option, interning them if the option asks for it.
+   * Lists longer than the parallel threshold of the option are converted in parallel.
    */
-  private static List<String> getMultipleOptionValuesFromCliArgs(String[] args, Option option) {
-    final String optionName = option.name();
-    final List<String> values = new ArrayList<>();
-
-    for (int i = 0; i < args.length; i++) {
-      if (args[i].equals(optionName)) {
-        if (option.isFlag()) {
-          throw new IllegalArgumentException("Cannot have multiple values for flags.");
-        }
-
-        if (i + 2 > args.length) {
-          throw new IllegalArgumentException("Option values must appear after the option name");
-        }
-        values.add(args[i + 1]);
-      }
+  private static List<Object> convertAll(Schema schema, int slot, List<String> values) {
+    final Option option = schema.options[slot];
+    final boolean parallel =
+        option.parallelThreshold() >= 0 && values.size() > option.parallelThreshold();
+    Converter converter = schema.converters[slot];
+    if (option.intern()) {
+      converter = Converters.interning(converter, parallel);
     }
 
-    if (option.required() && values.size() < 1) {
-      throw new RequiredOptionException("Required option " + optionName + " not found");
+    if (parallel) {
+      return ParallelConversion.convert(values, converter);
     }
 
-    return values;
-  }
-
-  /**
-   * Parse any value which extends {@link Number}.
-   *
-   * @param numberClass The concrete number class.
-   * @param optionValue The value passed from the cli.
-   */
-  private static Number parseNumber(Class<? extends Number> numberClass, String optionValue) {
-    final Number numberValue;
-    if (numberClass.equals(Byte.class)) {
-      numberValue = Byte.valueOf(optionValue);
-    } else if (numberClass.equals(Short.class)) {
-      numberValue = Short.valueOf(optionValue);
-    } else if (numberClass.equals(Integer.class)) {
-      numberValue = Integer.valueOf(optionValue);
-    } else if (numberClass.equals(Long.class)) {
-      numberValue = Long.valueOf(optionValue);
-    } else if (numberClass.equals(Float.class)) {
-      numberValue = Float.valueOf(optionValue);
-    } else if (numberClass.equals(Double.class)) {
-      numberValue = Double.valueOf(optionValue);
-    } else {
-      throw new IllegalArgumentException("Cannot parse " + numberClass);
+    final List<Object> converted = new ArrayList<>(values.size());
+    for (String value : values) {
+      converted.add(converter.convert(value));
     }
-    return numberValue;
+    return converted;
   }
 
   private static Boolean parseBoolean(String optionValue) {
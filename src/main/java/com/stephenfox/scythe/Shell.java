@@ -0,0 +1,195 @@
+package com.stephenfox.scythe;
+
+import com.stephenfox.scythe.annotation.Option;
+
+import java.io.BufferedReader;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An interactive shell that reads command lines and invokes the method the options are declared
+ * at once per line. The schema of the options is compiled once and reused for every line.
+ *
+ * <p>Lines are split into arguments with shell style quoting, so {@code --name 'Stephen Fox'}
+ * passes a single value. Besides command lines the shell understands:
+ *
+ * <ul>
+ *   <li>{@code exit} or {@code quit} - stop the shell
+ *   <li>{@code history} - list the previous lines
+ *   <li>{@code !!} - run the previous line again
+ *   <li>{@code !n} - run line {@code n} of the history again
+ *   <li>{@code -h} or {@code --help} - show the help message
+ * </ul>
+ *
+ * Errors from a line are written to the output and the shell carries on with the next line.
+ *
+ * @author Stephen Fox.
+ */
+public final class Shell {
+
+  private final Scythe scythe;
+  private final Schema schema;
+  private final List<String> history = new ArrayList<>();
+  private String prompt = "> ";
+
+  Shell(Scythe scythe, Schema schema) {
+    this.scythe = scythe;
+    this.schema = schema;
+  }
+
+  /**
+   * Set the prompt written before each line is read, by default {@code "> "}.
+   *
+   * @param prompt The prompt.
+   * @return This instance.
+   */
+  public Shell prompt(String prompt) {
+    this.prompt = prompt;
+    return this;
+  }
+
+  /** Run the shell on {@link System#in} and {@link System#out} until it is exited. */
+  public void run() {
+    try {
+      run(new BufferedReader(new InputStreamReader(System.in)), System.out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Run the shell until it is exited or the input ends.
+   *
+   * @param in Where lines are read from.
+   * @param out Where the prompt, help and errors are written.
+   * @throws IOException If reading or writing fails.
+   */
+  public void run(BufferedReader in, Appendable out) throws IOException {
+    while (true) {
+      out.append(prompt);
+      if (out instanceof Flushable) {
+        ((Flushable) out).flush();
+      }
+      final String line = in.readLine();
+      if (line == null || !execute(line, out)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Run a single line.
+   *
+   * @param line The line.
+   * @param out Where help and errors are written.
+   * @return False if the line asked the shell to exit, otherwise true.
+   * @throws IOException If writing fails.
+   */
+  public boolean execute(String line, Appendable out) throws IOException {
+    String command = line.trim();
+    if (command.isEmpty()) {
+      return true;
+    } else if (command.equals("exit") || command.equals("quit")) {
+      return false;
+    } else if (command.equals("history")) {
+      for (int i = 0; i < history.size(); i++) {
+        out.append(String.valueOf(i + 1)).append("  ").append(history.get(i));
+        out.append(System.lineSeparator());
+      }
+      return true;
+    } else if (command.startsWith("!")) {
+      command = recall(command, out);
+      if (command == null) {
+        return true;
+      }
+    }
+
+    history.add(command);
+    try {
+      scythe.withArgs(ShellTokenizer.tokenize(command)).helpOutput(out).parse();
+    } catch (RuntimeException e) {
+      out.append("error: ").append(String.valueOf(e.getMessage())).append(System.lineSeparator());
+    }
+    return true;
+  }
+
+  /** @return The lines run so far, oldest first. */
+  public List<String> history() {
+    return Collections.unmodifiableList(history);
+  }
+
+  /**
+   * Complete the last argument of a partial line from the option names and aliases. Options which
+   * already appear in the line are left out unless they can be given multiple times.
+   *
+   * @param line The partial line.
+   * @return The names and aliases starting with the last argument, in declaration order.
+   */
+  public List<String> complete(String line) {
+    final String[] tokens;
+    try {
+      tokens = ShellTokenizer.tokenize(line);
+    } catch (IllegalArgumentException e) {
+      return Collections.emptyList(); // Within a quoted value.
+    }
+    final boolean newToken =
+        line.isEmpty() || Character.isWhitespace(line.charAt(line.length() - 1));
+    final String prefix = newToken || tokens.length == 0 ? "" : tokens[tokens.length - 1];
+
+    final Set<Integer> used = new HashSet<>();
+    for (int i = 0; i < tokens.length - (newToken ? 0 : 1); i++) {
+      final int slot = schema.slotOf(tokens[i], 0, tokens[i].length());
+      if (slot >= 0 && !schema.options[slot].multiple()) {
+        used.add(slot);
+      }
+    }
+
+    final List<String> candidates = new ArrayList<>();
+    for (int slot = 0; slot < schema.options.length; slot++) {
+      if (used.contains(slot)) {
+        continue;
+      }
+      final Option option = schema.options[slot];
+      if (option.name().startsWith(prefix)) {
+        candidates.add(option.name());
+      }
+      for (String alias : option.aliases()) {
+        if (alias.startsWith(prefix)) {
+          candidates.add(alias);
+        }
+      }
+    }
+    return candidates;
+  }
+
+  private String recall(String command, Appendable out) throws IOException {
+    final int index;
+    if (command.equals("!!")) {
+      index = history.size() - 1;
+    } else {
+      int parsed;
+      try {
+        parsed = Integer.parseInt(command.substring(1)) - 1;
+      } catch (NumberFormatException e) {
+        parsed = -1;
+      }
+      index = parsed;
+    }
+
+    if (index < 0 || index >= history.size()) {
+      out.append("error: ").append(command).append(": event not found");
+      out.append(System.lineSeparator());
+      return null;
+    }
+    final String recalled = history.get(index);
+    out.append(recalled).append(System.lineSeparator());
+    return recalled;
+  }
+}
@@ -0,0 +1,78 @@
+package com.stephenfox.scythe;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a line into arguments the way a POSIX shell would. Arguments are separated by whitespace,
+ * single quotes keep everything up to the closing quote as is, double quotes allow {@code \"} and
+ * {@code \\} escapes, and outside of quotes a backslash escapes the next character.
+ *
+ * @author Stephen Fox.
+ */
+final class ShellTokenizer {
+
+  private ShellTokenizer() {}
+
+  /**
+   * Split a line into arguments.
+   *
+   * @param line The line to split.
+   * @return The arguments.
+   * @throws IllegalArgumentException If a quote is not closed.
+   */
+  static String[] tokenize(String line) {
+    final List<String> tokens = new ArrayList<>();
+    final StringBuilder token = new StringBuilder();
+    boolean inToken = false;
+
+    for (int i = 0; i < line.length(); i++) {
+      final char c = line.charAt(i);
+      if (Character.isWhitespace(c)) {
+        if (inToken) {
+          tokens.add(token.toString());
+          token.setLength(0);
+          inToken = false;
+        }
+      } else if (c == '\'') {
+        final int close = line.indexOf('\'', i + 1);
+        if (close < 0) {
+          throw new IllegalArgumentException("Unterminated ' in: " + line);
+        }
+        token.append(line, i + 1, close);
+        inToken = true;
+        i = close;
+      } else if (c == '"') {
+        i = readDoubleQuoted(line, i + 1, token);
+        inToken = true;
+      } else if (c == '\\' && i + 1 < line.length()) {
+        token.append(line.charAt(++i));
+        inToken = true;
+      } else {
+        token.append(c);
+        inToken = true;
+      }
+    }
+
+    if (inToken) {
+      tokens.add(token.toString());
+    }
+    return tokens.toArray(new String[0]);
+  }
+
+  /** @return The index of the closing quote. */
+  private static int readDoubleQuoted(String line, int i, StringBuilder token) {
+    for (; i < line.length(); i++) {
+      final char c = line.charAt(i);
+      if (c == '"') {
+        return i;
+      } else if (c == '\\' && i + 1 < line.length()
+          && (line.charAt(i + 1) == '"' || line.charAt(i + 1) == '\\')) {
+        token.append(line.charAt(++i));
+      } else {
+        token.append(c);
+      }
+    }
+    throw new IllegalArgumentException("Unterminated \" in: " + line);
+  }
+}
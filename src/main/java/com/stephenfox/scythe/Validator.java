@@ -0,0 +1,126 @@
+package com.stephenfox.scythe;
+
+import com.stephenfox.scythe.annotation.Option;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A converter that checks each value against the rules declared on its option as it converts it.
+ * The rules are compiled once per schema: the pattern is compiled, the choices are put in a hash
+ * set and the range is held as primitive bounds. The {@code pattern}, length and {@code choices}
+ * rules apply to the value as given, {@code min} and {@code max} to the converted number.
+ *
+ * @author Stephen Fox.
+ */
+final class Validator implements Converter {
+
+  private final Option option;
+  private final Converter converter;
+  private final Pattern pattern;
+  private final Set<String> choices;
+  private final int minLength;
+  private final int maxLength;
+  private final boolean checkRange;
+  private final boolean integral;
+  private final long minLong;
+  private final long maxLong;
+  private final double min;
+  private final double max;
+
+  private Validator(Option option, Converter converter) {
+    this.option = option;
+    this.converter = converter;
+    this.pattern = option.pattern().isEmpty() ? null : Pattern.compile(option.pattern());
+    this.choices =
+        option.choices().length == 0 ? null : new HashSet<>(Arrays.asList(option.choices()));
+    this.minLength = option.minLength();
+    this.maxLength = option.maxLength();
+    this.min = option.min();
+    this.max = option.max();
+    this.checkRange = min != Double.NEGATIVE_INFINITY || max != Double.POSITIVE_INFINITY;
+    this.integral =
+        option.type().equals(Byte.class)
+            || option.type().equals(Short.class)
+            || option.type().equals(Integer.class)
+            || option.type().equals(Long.class);
+    this.minLong = (long) Math.ceil(min);
+    this.maxLong = (long) Math.floor(max);
+
+    if (checkRange
+        && !integral
+        && !option.type().equals(Float.class)
+        && !option.type().equals(Double.class)) {
+      throw new IllegalArgumentException(
+          "min and max only apply to number options, not " + option.name());
+    }
+  }
+
+  /**
+   * Wrap the converter of an option so it checks the rules declared on the option.
+   *
+   * @param option The option.
+   * @param converter The converter for the option type.
+   * @return The validating converter, or the converter itself if the option declares no rules.
+   * @throws IllegalArgumentException If the rules are not valid for the option.
+   * @throws java.util.regex.PatternSyntaxException If the pattern is not valid.
+   */
+  static Converter of(Option option, Converter converter) {
+    return hasRules(option) ? new Validator(option, converter) : converter;
+  }
+
+  /** @return True if the option declares any rule its values are checked against. */
+  static boolean hasRules(Option option) {
+    return !option.pattern().isEmpty()
+        || option.choices().length > 0
+        || option.minLength() > 0
+        || option.maxLength() < Integer.MAX_VALUE
+        || option.min() != Double.NEGATIVE_INFINITY
+        || option.max() != Double.POSITIVE_INFINITY;
+  }
+
+  @Override
+  public Object convert(String value) {
+    if (choices != null && !choices.contains(value)) {
+      throw invalid(value, "is not one of " + String.join(", ", option.choices()));
+    }
+    if (value.length() < minLength) {
+      throw invalid(value, "is shorter than " + minLength + " characters");
+    } else if (value.length() > maxLength) {
+      throw invalid(value, "is longer than " + maxLength + " characters");
+    }
+    if (pattern != null && !pattern.matcher(value).matches()) {
+      throw invalid(value, "does not match " + option.pattern());
+    }
+
+    final Object converted = converter.convert(value);
+    if (checkRange) {
+      final Number number = (Number) converted;
+      if (integral) {
+        final long n = number.longValue();
+        if (n < minLong) {
+          throw invalid(value, "is less than " + minLong);
+        } else if (n > maxLong) {
+          throw invalid(value, "is greater than " + maxLong);
+        }
+      } else {
+        final double n = number.doubleValue();
+        if (Double.isNaN(n)) {
+          throw invalid(value, "is not a number");
+        } else if (n < min) {
+          throw invalid(value, "is less than " + min);
+        } else if (n > max) {
+          throw invalid(value, "is greater than " + max);
+        }
+      }
+    }
+    return converted;
+  }
+
+  private InvalidValueException invalid(String value, String reason) {
+    return new InvalidValueException(
+        "Value " + value + " of option " + option.name() + " " + reason);
+  }
+}
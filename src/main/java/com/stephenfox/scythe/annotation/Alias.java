@@ -0,0 +1,27 @@
+package com.stephenfox.scythe.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Other values an enum constant can be given as, when it is the value of an option. Aliases are
+ * matched regardless of case, the same as constant names, and cannot be the name of another
+ * constant.
+ *
+ * <pre>{@code
+ * enum Level {
+ *   @Alias({"dbg", "verbose"})
+ *   DEBUG,
+ *   INFO
+ * }
+ * }</pre>
+ *
+ * @author Stephen Fox.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Alias {
+  String[] value();
+}
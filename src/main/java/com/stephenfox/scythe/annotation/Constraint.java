@@ -0,0 +1,50 @@
+package com.stephenfox.scythe.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * A rule on which options may be given together, declared alongside the options it refers to.
+ * Options are referred to by name or alias. An option counts as given when it has a value from the
+ * command line, the environment or a configuration file, default values do not count. Flags only
+ * count as given when they are true.
+ *
+ * <pre>{@code
+ * @Option(name="--file", required=false)
+ * @Option(name="--url", required=false)
+ * @Option(name="--user", required=false)
+ * @Option(name="--password", required=false)
+ * @Constraint(kind=Constraint.Kind.MUTUALLY_EXCLUSIVE, options={"--file", "--url"})
+ * @Constraint(kind=Constraint.Kind.AT_LEAST_ONE, options={"--file", "--url"})
+ * @Constraint(kind=Constraint.Kind.GROUP, options={"--user", "--password"})
+ * @Constraint(kind=Constraint.Kind.REQUIRES, options={"--url", "--user"})
+ * Object options;
+ * }</pre>
+ *
+ * @author Stephen Fox.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Repeatable(Constraints.class)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface Constraint {
+
+  enum Kind {
+    /** Either all of the options are given or none of them are. */
+    GROUP,
+    /** At most one of the options is given. */
+    MUTUALLY_EXCLUSIVE,
+    /** At least one of the options is given. */
+    AT_LEAST_ONE,
+    /** If the first option is given, all of the remaining options must also be given. */
+    REQUIRES
+  }
+
+  /** The kind of rule. */
+  Kind kind();
+
+  /** The names or aliases of the options the rule applies to. */
+  String[] options();
+}
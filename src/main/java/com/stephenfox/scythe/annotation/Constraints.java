@@ -0,0 +1,17 @@
+package com.stephenfox.scythe.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * As many constraints can be declared this is the container type for such occurrences.
+ *
+ * @author Stephen Fox.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface Constraints {
+  Constraint[] value();
+}
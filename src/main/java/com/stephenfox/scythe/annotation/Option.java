@@ -7,6 +7,7 @@ import java.lang.annotation.Repeatable;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.function.Supplier;
 
 @Retention(RetentionPolicy.RUNTIME)
 @Repeatable(Options.class)
@@ -41,16 +42,37 @@ public @interface Option {
 
   /**
    * The help message is displayed anytime a user runs your application with `-h` or `--help`. This
-   * should describe to purpose of the option.
+   * should describe to purpose of the option. Each option is displayed with its names, type and
+   * help message, long messages are wrapped.
    *
-   * <p>TODO: Add an example of how a help message will be displayed.
+   * <pre>
+   *   --port, -p Integer      The port to listen on.
+   * </pre>
    */
   String help() default "";
 
+  /**
+   * The heading the option is listed under in the help message. Options without a group are listed
+   * first, followed by each group in the order it is first used.
+   */
+  String group() default "";
+
   /**
    * Every option must have a type in order for it to be correctly parsed from the command line
    * arguments or via environment variables.
    *
+   * <p>Besides {@code String} and the {@code Number} types, the following types name a file that
+   * must exist when the options are parsed:
+   *
+   * <ul>
+   *   <li>{@code java.nio.file.Path} - the path of the file.
+   *   <li>{@code java.nio.ByteBuffer} - the file memory mapped read only when the options are
+   *       parsed. Files over {@code Integer.MAX_VALUE} bytes cannot be mapped.
+   *   <li>{@code java.io.InputStream} and {@code java.nio.channels.ReadableByteChannel} - the file
+   *       opened when first read, or standard input for {@code -}. These should be closed once
+   *       read, for example with {@code Scythe.close}.
+   * </ul>
+   *
    * <p>Custom types are supported, however they must have a default constructor that will take a
    * {@code String} as an argument, where the value from the cli args will be passed.
    */
@@ -106,4 +128,128 @@ public @interface Option {
    * <p>For example `--dimensions 2.0 3.0`
    */
   int nargs() default 0;
+
+  /**
+   * For options with many repeated values, i.e `multiple` or `nargs` options, setting `intern` to
+   * true converts each distinct value once. Every repeat of a value shares the instance converted
+   * first, rather than holding its own copy. Interning is bounded, after a few thousand distinct
+   * values further values are converted as normal.
+   *
+   * <p>For example `--tag a --tag b --tag a` gives a list where the first and last element are the
+   * same instance.
+   */
+  boolean intern() default false;
+
+  /**
+   * For `multiple` or `nargs` options with values that are expensive to convert, values are
+   * converted in parallel when there are more of them than this threshold. The order of the values
+   * is kept, and if any value fails to convert the first failure is thrown with every later failure
+   * attached as suppressed. By default values are never converted in parallel.
+   *
+   * <pre>{@code
+   * @Option(name="--pattern", type=CompiledPattern.class, multiple=true, parallelThreshold=1000)
+   * }</pre>
+   */
+  int parallelThreshold() default -1;
+
+  /**
+   * Whether converting the same value always gives an equal result. Set this to false for custom
+   * types whose value depends on more than the string they are given, such as the time or the
+   * contents of a file, so parse results holding them are never reused by a {@code ParseCache}.
+   * The file types are always treated as non-deterministic. The same applies to a {@link
+   * #defaultSupplier()} whose value can change, such as a free port.
+   */
+  boolean deterministic() default true;
+
+  /**
+   * The smallest value a number option can be given, checked as each value is converted. Integer
+   * types are compared against the bound rounded up to a whole number.
+   *
+   * <pre>{@code
+   * @Option(name="--port", type=Integer.class, min=1, max=65535)
+   * }</pre>
+   */
+  double min() default Double.NEGATIVE_INFINITY;
+
+  /**
+   * The largest value a number option can be given, checked as each value is converted. Integer
+   * types are compared against the bound rounded down to a whole number.
+   */
+  double max() default Double.POSITIVE_INFINITY;
+
+  /**
+   * A regular expression each value of an option must match in full, before it is converted. The
+   * expression is compiled once per class.
+   *
+   * <pre>{@code
+   * @Option(name="--host", type=String.class, pattern="[a-z0-9.-]+")
+   * }</pre>
+   */
+  String pattern() default "";
+
+  /** The fewest characters each value of an option can have. */
+  int minLength() default 0;
+
+  /** The most characters each value of an option can have. */
+  int maxLength() default Integer.MAX_VALUE;
+
+  /**
+   * The values an option can be given, any other value is an error. Choices are listed in the help
+   * message of the option.
+   *
+   * <pre>{@code
+   * @Option(name="--level", type=String.class, choices={"debug", "info", "warn"})
+   * }</pre>
+   */
+  String[] choices() default {};
+
+  /**
+   * For `multiple` options of an enum type, setting `enumSet` to true gives an {@code EnumSet} of
+   * the values rather than a {@code List}. Repeated values are only held once.
+   *
+   * <pre>{@code
+   * @Option(name="--feature", type=Feature.class, multiple=true, enumSet=true)
+   * }</pre>
+   */
+  boolean enumSet() default false;
+
+  /**
+   * A supplier of the default value of an option, called only when the option is given no value.
+   * Unlike a static default field, nothing is computed when the option is given. The supplier
+   * must have a constructor without parameters, a new instance is created each time it is needed.
+   * When several options in a parse need their supplier they are called concurrently. The value
+   * supplied is used as it is, without conversion, and a static default field is not read.
+   *
+   * <pre>{@code
+   * public class CpuCount implements Supplier<Integer> {
+   *   public Integer get() {
+   *     return Runtime.getRuntime().availableProcessors();
+   *   }
+   * }
+   *
+   * @Option(name="--threads", type=Integer.class, defaultSupplier=CpuCount.class)
+   * }</pre>
+   */
+  Class<? extends Supplier<?>> defaultSupplier() default NoDefault.class;
+
+  /** The {@link #defaultSupplier()} of options without one, it is never called. */
+  final class NoDefault implements Supplier<Object> {
+    private NoDefault() {}
+
+    @Override
+    public Object get() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * The name of an environment variable the option value can be read from when it is not given in
+   * the command line arguments. Values from the command line take precedence over the environment,
+   * which takes precedence over any configuration file and default value.
+   *
+   * <pre>{@code
+   * @Option(name="--port", env="APP_PORT", type=Integer.class)
+   * }</pre>
+   */
+  String env() default "";
 }
@@ -0,0 +1,225 @@
+package com.stephenfox.scythe.processor;
+
+import com.stephenfox.scythe.annotation.Option;
+import com.stephenfox.scythe.annotation.Options;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Writes the reflection metadata a native image needs for Scythe to parse the options of an
+ * application. Every class declaring options is registered for access to all of its declared
+ * fields and methods, which covers the annotated field or method and any default value fields.
+ * Every custom option type is registered for its {@code String} constructor, and every enum option
+ * type for its constants and their {@code Alias} annotations. Every default value supplier is
+ * registered for its constructor without parameters.
+ *
+ * <p>The metadata is written to {@code META-INF/native-image/scythe/<project>/reflect-config.json}
+ * of the class output, where it is picked up by the native image builder. The project defaults to
+ * {@code app} and can be set with the {@code -Ascythe.project=<project>} compiler option.
+ *
+ * @author Stephen Fox.
+ */
+public class NativeImageProcessor extends AbstractProcessor {
+
+  static final String PROJECT_OPTION = "scythe.project";
+
+  // Option types Scythe converts without reflection.
+  private static final Set<String> BUILT_IN_TYPES =
+      new HashSet<>(
+          Arrays.asList(
+              "java.lang.String",
+              "java.lang.Byte",
+              "java.lang.Short",
+              "java.lang.Integer",
+              "java.lang.Long",
+              "java.lang.Float",
+              "java.lang.Double",
+              "java.nio.file.Path",
+              "java.nio.ByteBuffer",
+              "java.io.InputStream",
+              "java.nio.channels.ReadableByteChannel"));
+
+  private final Set<String> declaringClasses = new TreeSet<>();
+  private final Set<String> optionTypes = new TreeSet<>();
+  private final Set<String> enumTypes = new TreeSet<>();
+  private final Set<String> defaultSuppliers = new TreeSet<>();
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return new HashSet<>(Arrays.asList(Option.class.getName(), Options.class.getName()));
+  }
+
+  @Override
+  public Set<String> getSupportedOptions() {
+    return Collections.singleton(PROJECT_OPTION);
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for (TypeElement annotation : annotations) {
+      for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+        declaringClasses.add(binaryName((TypeElement) element.getEnclosingElement()));
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+          addOptionTypes(mirror);
+        }
+      }
+    }
+
+    if (roundEnv.processingOver()) {
+      write();
+    }
+    return false;
+  }
+
+  private void addOptionTypes(AnnotationMirror mirror) {
+    final String annotationName = annotationName(mirror);
+    if (annotationName.equals(Options.class.getName())) {
+      for (AnnotationValue value : values(mirror).values()) {
+        @SuppressWarnings("unchecked")
+        final List<? extends AnnotationValue> options =
+            (List<? extends AnnotationValue>) value.getValue();
+        for (AnnotationValue option : options) {
+          addOptionTypes((AnnotationMirror) option.getValue());
+        }
+      }
+    } else if (annotationName.equals(Option.class.getName())) {
+      for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+          values(mirror).entrySet()) {
+        if (entry.getKey().getSimpleName().contentEquals("defaultSupplier")) {
+          final TypeMirror type = (TypeMirror) entry.getValue().getValue();
+          final String name = binaryName((TypeElement) ((DeclaredType) type).asElement());
+          if (!name.equals(Option.NoDefault.class.getName())) {
+            defaultSuppliers.add(name);
+          }
+        } else if (entry.getKey().getSimpleName().contentEquals("type")) {
+          final TypeMirror type = (TypeMirror) entry.getValue().getValue();
+          if (type.getKind() == TypeKind.DECLARED) {
+            final TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            final String name = binaryName(element);
+            if (element.getKind() == ElementKind.ENUM) {
+              enumTypes.add(name);
+            } else if (!BUILT_IN_TYPES.contains(name)) {
+              optionTypes.add(name);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static String annotationName(AnnotationMirror mirror) {
+    return ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString();
+  }
+
+  private Map<? extends ExecutableElement, ? extends AnnotationValue> values(
+      AnnotationMirror mirror) {
+    return processingEnv.getElementUtils().getElementValuesWithDefaults(mirror);
+  }
+
+  private String binaryName(TypeElement element) {
+    return processingEnv.getElementUtils().getBinaryName(element).toString();
+  }
+
+  private void write() {
+    if (declaringClasses.isEmpty()) {
+      return;
+    }
+
+    // A class can both declare options and be the type of an option, a supplier or an enum, so
+    // each class has one entry with a single list of methods.
+    final Map<String, StringBuilder> entries = new TreeMap<>();
+    final Map<String, List<String>> methods = new TreeMap<>();
+    for (String name : declaringClasses) {
+      entries
+          .computeIfAbsent(name, NativeImageProcessor::entry)
+          .append(",\n    \"allDeclaredFields\": true")
+          .append(",\n    \"allDeclaredMethods\": true");
+    }
+    for (String name : optionTypes) {
+      entries.computeIfAbsent(name, NativeImageProcessor::entry);
+      methods
+          .computeIfAbsent(name, key -> new ArrayList<>())
+          .add("{\"name\": \"<init>\", \"parameterTypes\": [\"java.lang.String\"]}");
+    }
+    for (String name : defaultSuppliers) {
+      entries.computeIfAbsent(name, NativeImageProcessor::entry);
+      methods
+          .computeIfAbsent(name, key -> new ArrayList<>())
+          .add("{\"name\": \"<init>\", \"parameterTypes\": []}");
+    }
+    for (String name : enumTypes) {
+      entries
+          .computeIfAbsent(name, NativeImageProcessor::entry)
+          .append(",\n    \"allPublicFields\": true");
+      methods
+          .computeIfAbsent(name, key -> new ArrayList<>())
+          .add("{\"name\": \"values\", \"parameterTypes\": []}");
+    }
+    for (Map.Entry<String, List<String>> entry : methods.entrySet()) {
+      entries
+          .get(entry.getKey())
+          .append(",\n    \"methods\": [")
+          .append(String.join(", ", entry.getValue()))
+          .append(']');
+    }
+
+    final StringBuilder json = new StringBuilder("[");
+    for (StringBuilder entry : entries.values()) {
+      json.append(json.length() > 1 ? ",\n" : "\n").append(entry).append("\n  }");
+    }
+    json.append("\n]\n");
+
+    final String project = processingEnv.getOptions().getOrDefault(PROJECT_OPTION, "app");
+    try {
+      final FileObject file =
+          processingEnv
+              .getFiler()
+              .createResource(
+                  StandardLocation.CLASS_OUTPUT,
+                  "",
+                  "META-INF/native-image/scythe/" + project + "/reflect-config.json");
+      try (Writer writer = file.openWriter()) {
+        writer.write(json.toString());
+      }
+    } catch (IOException e) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR, "Unable to write native image metadata: " + e.getMessage());
+    }
+  }
+
+  private static StringBuilder entry(String name) {
+    return new StringBuilder("  {\n    \"name\": \"").append(name).append('"');
+  }
+}
@@ -0,0 +1,164 @@
+package com.stephenfox.scythe;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.stephenfox.scythe.annotation.Option;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks the bytes allocated by a call to {@link Scythe#parse()} stay within the budget stored for
+ * each scenario in {@code allocation-budgets.properties}. A budget for the running Java
+ * specification version takes precedence over the budget for every version. Each scenario is warmed
+ * up before the average allocation of a number of parses is measured on the current thread.
+ *
+ * <p>To find the current allocation of each scenario run with {@code
+ * -Dscythe.allocation.report=true}, budgets should be raised deliberately and not to make a test
+ * pass.
+ */
+@SuppressWarnings("unused")
+public class AllocationBudgetTest {
+
+  private static final int WARM_UP = 20_000;
+  private static final int MEASURED = 10_000;
+
+  private static com.sun.management.ThreadMXBean threadMXBean;
+  private static final Properties budgets = new Properties();
+
+  @BeforeClass
+  public static void beforeClass() throws IOException {
+    final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+      threadMXBean = (com.sun.management.ThreadMXBean) bean;
+      threadMXBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    try (InputStream in =
+        AllocationBudgetTest.class.getResourceAsStream("/allocation-budgets.properties")) {
+      budgets.load(in);
+    }
+  }
+
+  private static String[] args(String... args) {
+    return args;
+  }
+
+  private static void assertWithinBudget(String scenario, String[] args, Class<?> clazz) {
+    assumeTrue("Thread allocation measurement is not supported", threadMXBean != null);
+
+    final Map<String, String> environment = new HashMap<>();
+    for (int i = 0; i < WARM_UP; i++) {
+      Scythe.cli(args, clazz).environment(environment).parse();
+    }
+
+    final long threadId = Thread.currentThread().getId();
+    final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < MEASURED; i++) {
+      Scythe.cli(args, clazz).environment(environment).parse();
+    }
+    final long perParse = (threadMXBean.getThreadAllocatedBytes(threadId) - before) / MEASURED;
+
+    final String version = System.getProperty("java.specification.version");
+    final String everyVersion = budgets.getProperty(scenario);
+    final long budget = Long.parseLong(budgets.getProperty(scenario + "." + version, everyVersion));
+    if (Boolean.getBoolean("scythe.allocation.report")) {
+      System.out.println(scenario + ": " + perParse + " bytes per parse, budget " + budget);
+    }
+    assertTrue(
+        scenario + " allocated " + perParse + " bytes per parse, budget is " + budget,
+        perParse <= budget);
+  }
+
+  // ---------------------------------------------
+  // Scenarios.
+  // ---------------------------------------------
+  private static class Field {
+    @Option(name = "--host")
+    @Option(
+        name = "--port",
+        aliases = {"-p"},
+        type = Integer.class)
+    private Object options;
+  }
+
+  @Test
+  public void testField() {
+    assertWithinBudget("field", args("--host", "127.0.0.1", "-p", "8080"), Field.class);
+  }
+
+  private static class Method {
+    @Option(name = "--host", order = 1)
+    @Option(name = "--port", order = 2, type = Integer.class)
+    public static void main(String host, Integer port) {}
+  }
+
+  @Test
+  public void testMethod() {
+    assertWithinBudget("method", args("--host", "127.0.0.1", "--port", "8080"), Method.class);
+  }
+
+  private static class Multiple {
+    @Option(name = "--env", multiple = true)
+    private Object options;
+  }
+
+  @Test
+  public void testMultiple() {
+    assertWithinBudget(
+        "multiple",
+        args("--env", "A=1", "--env", "B=2", "--env", "C=3", "--env", "D=4"),
+        Multiple.class);
+  }
+
+  private static class Nargs {
+    @Option(name = "--dimensions", nargs = 3, type = Double.class)
+    private Object options;
+  }
+
+  @Test
+  public void testNargs() {
+    assertWithinBudget("nargs", args("--dimensions", "1.0 2.0 3.0"), Nargs.class);
+  }
+
+  private static class Flags {
+    @Option(
+        name = "--all",
+        aliases = {"-a"},
+        isFlag = true)
+    @Option(
+        name = "--long",
+        aliases = {"-l"},
+        isFlag = true)
+    @Option(name = "--reset", isFlag = true)
+    private Object options;
+  }
+
+  @Test
+  public void testFlags() {
+    assertWithinBudget("flags", args("-al"), Flags.class);
+  }
+
+  private static class Defaults {
+    @Option(name = "--host")
+    @Option(name = "--port", type = Integer.class)
+    private Object options;
+
+    private static String host = "127.0.0.1";
+    private static Integer port = 8080;
+  }
+
+  @Test
+  public void testDefaults() {
+    assertWithinBudget("defaults", args(), Defaults.class);
+  }
+}
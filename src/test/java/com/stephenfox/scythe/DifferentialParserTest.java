@@ -0,0 +1,674 @@
+package com.stephenfox.scythe;
+
+import static com.stephenfox.scythe.ReflectionUtil.getDefaultFieldValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.stephenfox.scythe.annotation.Option;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+/**
+ * Checks the parser against a reference implementation of the original parser, which looked up
+ * each option with its own linear scan of the arguments. Random schemas of flags, {@code nargs},
+ * {@code multiple}, aliases, required options and defaults are generated along with random
+ * arguments for them, and both parsers must give equal results or throw the same type of
+ * exception. A disagreement is shrunk to a minimal case before it is reported.
+ *
+ * <p>Arguments are generated within the behaviour both parsers share: every option is followed by
+ * its value, values never look like option names and {@code multiple} options are only given by
+ * name, as the original parser did not match their aliases. The compact forms of the current
+ * parser are not generated.
+ *
+ * <p>To compare the throughput of both parsers on each corpus run with {@code
+ * -Dscythe.differential.report=true}, and to try other cases set {@code
+ * -Dscythe.differential.seed}.
+ */
+public class DifferentialParserTest {
+
+  private static final long SEED = Long.getLong("scythe.differential.seed", 0x5c7e5eedL);
+  private static final boolean REPORT = Boolean.getBoolean("scythe.differential.report");
+  private static final int CORPORA = 8;
+  private static final int CASES = 250;
+  private static final int TIMED_ROUNDS = 20;
+
+  private static final int MAX_OPTIONS = 8;
+  private static final String SHORT_ALIASES = "bcdefgijklmnopqrstuwxyz";
+  private static final List<Class<?>> TYPES =
+      Arrays.asList(
+          String.class,
+          Integer.class,
+          Long.class,
+          Double.class,
+          Float.class,
+          Short.class,
+          Byte.class);
+
+  /** Default values are read from these fields, which are set for each case. */
+  @SuppressWarnings("unused")
+  private static final class Defaults {
+    private static Object a0;
+    private static Object a1;
+    private static Object a2;
+    private static Object a3;
+    private static Object a4;
+    private static Object a5;
+    private static Object a6;
+    private static Object a7;
+  }
+
+  @Test
+  public void testAgainstReferenceParser() {
+    final Random random = new Random(SEED);
+    for (int corpus = 0; corpus < CORPORA; corpus++) {
+      final List<Case> cases = new ArrayList<>(CASES);
+      for (int i = 0; i < CASES; i++) {
+        cases.add(generate(random));
+      }
+
+      for (Case c : cases) {
+        if (disagree(c)) {
+          final Case minimal = shrink(c, DifferentialParserTest::disagree);
+          fail(
+              "Parsers disagree with seed "
+                  + SEED
+                  + ", minimal case:\n"
+                  + minimal
+                  + "\nreference: "
+                  + reference(minimal)
+                  + "\ncurrent:   "
+                  + current(minimal));
+        }
+      }
+
+      if (REPORT) {
+        System.out.printf(
+            "corpus %d: reference %,.0f parses/s, current %,.0f parses/s%n",
+            corpus,
+            throughput(cases, DifferentialParserTest::reference),
+            throughput(cases, DifferentialParserTest::current));
+      }
+    }
+  }
+
+  @Test
+  public void testShrink() {
+    final Random random = new Random(SEED);
+    Case large = generate(random);
+    while (large.occurrences.size() < 6 || !hasFlagOccurrence(large)) {
+      large = generate(random);
+    }
+
+    final Case minimal = shrink(large, DifferentialParserTest::hasFlagOccurrence);
+    assertEquals(1, minimal.occurrences.size());
+    assertEquals(1, minimal.specs.size());
+    assertTrue(minimal.specs.get(0).flag);
+    assertTrue(minimal.specs.get(0).aliases.size() <= 1);
+  }
+
+  private static boolean hasFlagOccurrence(Case c) {
+    for (Occurrence occurrence : c.occurrences) {
+      if (c.specs.get(occurrence.spec).flag) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // ---------------------------------------------
+  // Generating cases.
+  // ---------------------------------------------
+  private static Case generate(Random random) {
+    final List<Spec> specs = new ArrayList<>();
+    final List<Character> shortAliases = new ArrayList<>();
+    for (char c : SHORT_ALIASES.toCharArray()) {
+      shortAliases.add(c);
+    }
+    Collections.shuffle(shortAliases, random);
+
+    final int optionCount = 1 + random.nextInt(MAX_OPTIONS);
+    for (int i = 0; i < optionCount; i++) {
+      final Spec spec = new Spec("--a" + i);
+      spec.flag = random.nextInt(5) == 0;
+      spec.type = spec.flag ? String.class : TYPES.get(random.nextInt(TYPES.size()));
+      spec.multiple = random.nextInt(spec.flag ? 20 : 4) == 0;
+      spec.nargs = !spec.flag && random.nextInt(5) == 0 ? 1 + random.nextInt(3) : 0;
+      spec.required = random.nextInt(5) < 2;
+      if (!spec.multiple && random.nextInt(10) < 3) {
+        spec.defaultValue =
+            random.nextBoolean() ? "default" + i : convert(spec.type, value(spec.type, random));
+      }
+      for (int a = random.nextInt(3); a > 0; a--) {
+        spec.aliases.add(
+            random.nextBoolean() ? "-" + shortAliases.remove(0) : "--alias" + i + "-" + a);
+      }
+      specs.add(spec);
+    }
+
+    final List<Occurrence> occurrences = new ArrayList<>();
+    for (int o = random.nextInt(11); o > 0; o--) {
+      final int index = random.nextInt(specs.size());
+      final Spec spec = specs.get(index);
+      final String name;
+      if (spec.multiple || spec.aliases.isEmpty() || random.nextBoolean()) {
+        name = spec.name;
+      } else {
+        name = spec.aliases.get(random.nextInt(spec.aliases.size()));
+      }
+      occurrences.add(new Occurrence(index, name, spec.flag ? null : values(spec, random)));
+    }
+    return new Case(specs, occurrences);
+  }
+
+  private static String values(Spec spec, Random random) {
+    if (spec.nargs == 0) {
+      return value(spec.type, random);
+    }
+    // Mostly the right number of values, sometimes one too few or too many.
+    final int roll = random.nextInt(10);
+    final int count = roll == 0 ? spec.nargs - 1 : roll == 1 ? spec.nargs + 1 : spec.nargs;
+    final StringBuilder values = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      values.append(i == 0 ? "" : " ").append(value(spec.type, random));
+    }
+    return values.toString();
+  }
+
+  /** @return A value for the type, which never looks like an option name. */
+  private static String value(Class<?> type, Random random) {
+    if (random.nextInt(12) == 0) {
+      return "x" + random.nextInt(10); // Not a number.
+    }
+    final String value;
+    if (type == String.class) {
+      value = Arrays.asList("a", "value", "-1", "a=b", "é").get(random.nextInt(5));
+    } else if (type == Double.class || type == Float.class) {
+      value = Arrays.asList("0.5", "-1e3", "NaN", "7").get(random.nextInt(4));
+    } else if (type == Long.class) {
+      value = Long.toString(random.nextLong());
+    } else {
+      // Overflows Byte and Short some of the time.
+      value = Integer.toString(random.nextInt(80_000) - 40_000 >> random.nextInt(16));
+    }
+    return random.nextInt(8) == 0 ? " " + value + " " : value;
+  }
+
+  private static Object convert(Class<?> type, String value) {
+    try {
+      return Converters.of(type).convert(value.trim());
+    } catch (NumberFormatException e) {
+      return value;
+    }
+  }
+
+  // ---------------------------------------------
+  // Running both parsers.
+  // ---------------------------------------------
+  private static boolean disagree(Case c) {
+    return !reference(c).equals(current(c));
+  }
+
+  private static Outcome reference(Case c) {
+    setDefaults(c);
+    try {
+      return new Outcome(ReferenceParser.parse(c.args(), c.options(), Defaults.class), null);
+    } catch (RuntimeException e) {
+      return new Outcome(null, e.getClass());
+    }
+  }
+
+  private static Outcome current(Case c) {
+    setDefaults(c);
+    try {
+      final Schema schema = Schema.of(Defaults.class, c.options().toArray(new Option[0]));
+      final Scythe scythe =
+          Scythe.cli(c.args(), Defaults.class).environment(Collections.emptyMap());
+      final RawValues rawValues = scythe.readRawValues(schema);
+      final Object[] values = new Object[schema.options.length];
+      for (int slot = 0; slot < values.length; slot++) {
+        values[slot] = scythe.parseOption(schema, rawValues, slot);
+      }
+      return new Outcome(Scythe.toMap(schema, values), null);
+    } catch (RuntimeException e) {
+      return new Outcome(null, e.getClass());
+    }
+  }
+
+  private static void setDefaults(Case c) {
+    try {
+      for (Field field : Defaults.class.getDeclaredFields()) {
+        field.setAccessible(true);
+        field.set(null, null);
+      }
+      for (Spec spec : c.specs) {
+        if (spec.defaultValue != null) {
+          final Field field = Defaults.class.getDeclaredField(spec.name.substring(2));
+          field.setAccessible(true);
+          field.set(null, spec.defaultValue);
+        }
+      }
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static double throughput(List<Case> cases, Function<Case, ?> parser) {
+    // Warm up, then time every case of the corpus a number of times.
+    for (Case c : cases) {
+      parser.apply(c);
+    }
+    final long start = System.nanoTime();
+    for (int round = 0; round < TIMED_ROUNDS; round++) {
+      for (Case c : cases) {
+        parser.apply(c);
+      }
+    }
+    return cases.size() * (double) TIMED_ROUNDS / ((System.nanoTime() - start) / 1e9);
+  }
+
+  // ---------------------------------------------
+  // Shrinking failures.
+  // ---------------------------------------------
+
+  /**
+   * Shrink a case while it still has a property, trying smaller cases one at a time: without an
+   * occurrence, without an option no occurrence refers to, without an alias no occurrence uses,
+   * without a default or without being required. Stops once no smaller case has the property.
+   */
+  static Case shrink(Case c, Predicate<Case> property) {
+    Case smallest = c;
+    boolean shrunk = true;
+    while (shrunk) {
+      shrunk = false;
+      for (Case candidate : smaller(smallest)) {
+        if (property.test(candidate)) {
+          smallest = candidate;
+          shrunk = true;
+          break;
+        }
+      }
+    }
+    return smallest;
+  }
+
+  private static List<Case> smaller(Case c) {
+    final List<Case> candidates = new ArrayList<>();
+    for (int i = 0; i < c.occurrences.size(); i++) {
+      final List<Occurrence> occurrences = new ArrayList<>(c.occurrences);
+      occurrences.remove(i);
+      candidates.add(new Case(c.specs, occurrences));
+    }
+
+    for (int s = 0; s < c.specs.size(); s++) {
+      final Spec spec = c.specs.get(s);
+      if (!isReferenced(c, s)) {
+        final List<Spec> specs = new ArrayList<>(c.specs);
+        specs.remove(s);
+        final List<Occurrence> occurrences = new ArrayList<>();
+        for (Occurrence occurrence : c.occurrences) {
+          final int index = occurrence.spec > s ? occurrence.spec - 1 : occurrence.spec;
+          occurrences.add(new Occurrence(index, occurrence.name, occurrence.value));
+        }
+        candidates.add(new Case(specs, occurrences));
+      }
+      for (String alias : spec.aliases) {
+        if (!isUsed(c, alias)) {
+          final Spec copy = spec.copy();
+          copy.aliases.remove(alias);
+          candidates.add(c.with(s, copy));
+        }
+      }
+      if (spec.defaultValue != null) {
+        final Spec copy = spec.copy();
+        copy.defaultValue = null;
+        candidates.add(c.with(s, copy));
+      }
+      if (spec.required) {
+        final Spec copy = spec.copy();
+        copy.required = false;
+        candidates.add(c.with(s, copy));
+      }
+    }
+    return candidates;
+  }
+
+  private static boolean isReferenced(Case c, int spec) {
+    for (Occurrence occurrence : c.occurrences) {
+      if (occurrence.spec == spec) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isUsed(Case c, String name) {
+    for (Occurrence occurrence : c.occurrences) {
+      if (occurrence.name.equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // ---------------------------------------------
+  // Cases.
+  // ---------------------------------------------
+  private static final class Spec {
+    private final String name;
+    private List<String> aliases = new ArrayList<>();
+    private Class<?> type = String.class;
+    private boolean flag;
+    private boolean multiple;
+    private boolean required;
+    private int nargs;
+    private Object defaultValue;
+
+    Spec(String name) {
+      this.name = name;
+    }
+
+    Spec copy() {
+      final Spec copy = new Spec(name);
+      copy.aliases = new ArrayList<>(aliases);
+      copy.type = type;
+      copy.flag = flag;
+      copy.multiple = multiple;
+      copy.required = required;
+      copy.nargs = nargs;
+      copy.defaultValue = defaultValue;
+      return copy;
+    }
+
+    /** @return An {@link Option} with the attributes of this spec, others take their default. */
+    Option option() {
+      final Map<String, Object> values = new HashMap<>();
+      values.put("name", name);
+      values.put("aliases", aliases.toArray(new String[0]));
+      values.put("type", type);
+      values.put("isFlag", flag);
+      values.put("multiple", multiple);
+      values.put("required", required);
+      values.put("nargs", nargs);
+      return (Option)
+          Proxy.newProxyInstance(
+              Option.class.getClassLoader(),
+              new Class<?>[] {Option.class},
+              (proxy, method, args) -> {
+                switch (method.getName()) {
+                  case "annotationType":
+                    return Option.class;
+                  case "hashCode":
+                    return System.identityHashCode(proxy);
+                  case "equals":
+                    return proxy == args[0];
+                  case "toString":
+                    return toString();
+                  default:
+                    final Object value = values.get(method.getName());
+                    if (value instanceof String[]) {
+                      return ((String[]) value).clone();
+                    }
+                    return value != null ? value : method.getDefaultValue();
+                }
+              });
+    }
+
+    @Override
+    public String toString() {
+      return "@Option(name="
+          + name
+          + (aliases.isEmpty() ? "" : ", aliases=" + aliases)
+          + ", type="
+          + type.getSimpleName()
+          + (flag ? ", isFlag" : "")
+          + (multiple ? ", multiple" : "")
+          + (nargs > 0 ? ", nargs=" + nargs : "")
+          + (required ? ", required" : "")
+          + (defaultValue != null ? ", default=" + defaultValue : "")
+          + ")";
+    }
+  }
+
+  private static final class Occurrence {
+    private final int spec;
+    private final String name;
+    private final String value;
+
+    Occurrence(int spec, String name, String value) {
+      this.spec = spec;
+      this.name = name;
+      this.value = value;
+    }
+  }
+
+  private static final class Case {
+    private final List<Spec> specs;
+    private final List<Occurrence> occurrences;
+
+    Case(List<Spec> specs, List<Occurrence> occurrences) {
+      this.specs = specs;
+      this.occurrences = occurrences;
+    }
+
+    Case with(int index, Spec spec) {
+      final List<Spec> specs = new ArrayList<>(this.specs);
+      specs.set(index, spec);
+      return new Case(specs, occurrences);
+    }
+
+    String[] args() {
+      final List<String> args = new ArrayList<>();
+      for (Occurrence occurrence : occurrences) {
+        args.add(occurrence.name);
+        if (occurrence.value != null) {
+          args.add(occurrence.value);
+        }
+      }
+      return args.toArray(new String[0]);
+    }
+
+    List<Option> options() {
+      final List<Option> options = new ArrayList<>(specs.size());
+      for (Spec spec : specs) {
+        options.add(spec.option());
+      }
+      return options;
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder builder = new StringBuilder();
+      for (Spec spec : specs) {
+        builder.append(spec).append('\n');
+      }
+      final List<String> quoted = new ArrayList<>();
+      for (String arg : args()) {
+        quoted.add('"' + arg + '"');
+      }
+      return builder.append("args: ").append(quoted).toString();
+    }
+  }
+
+  /** A parse result, or the type of exception the parse threw. */
+  private static final class Outcome {
+    private final Map<String, Object> result;
+    private final Class<?> error;
+
+    Outcome(Map<String, Object> result, Class<?> error) {
+      this.result = result;
+      this.error = error;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Outcome)) {
+        return false;
+      }
+      final Outcome outcome = (Outcome) o;
+      return Objects.equals(result, outcome.result) && Objects.equals(error, outcome.error);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(result, error);
+    }
+
+    @Override
+    public String toString() {
+      return error != null ? error.getSimpleName() : String.valueOf(result);
+    }
+  }
+
+  // ---------------------------------------------
+  // The reference parser.
+  // ---------------------------------------------
+
+  /**
+   * The original parser for options declared at a field, kept as the reference for the current
+   * parser. Each option is looked up with its own scan of the arguments.
+   */
+  private static final class ReferenceParser {
+
+    static Map<String, Object> parse(String[] cliArgs, List<Option> options, Class<?> clazz) {
+      final String[] args = new String[cliArgs.length];
+      for (int i = 0; i < args.length; i++) {
+        args[i] = cliArgs[i].trim();
+      }
+
+      final Map<Option, Object> parsedOptions = new LinkedHashMap<>();
+      for (Option option : options) {
+        parsedOptions.put(option, parseOption(args, option, clazz));
+      }
+
+      final Map<String, Object> map = new HashMap<>(parsedOptions.size());
+      for (Map.Entry<Option, Object> entry : parsedOptions.entrySet()) {
+        map.put(entry.getKey().name(), entry.getValue());
+        for (String alias : entry.getKey().aliases()) {
+          map.put(alias, entry.getValue());
+        }
+      }
+      return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object parseOption(String[] args, Option option, Class<?> clazz) {
+      final Class<?> type = option.type();
+      if (option.multiple()) {
+        final List<String> strings = multipleValues(args, option);
+        if (strings.isEmpty()) {
+          return null;
+        }
+        final List<Object> values = new ArrayList<>(strings.size());
+        for (String value : strings) {
+          values.add(
+              Number.class.isAssignableFrom(type)
+                  ? parseNumber((Class<? extends Number>) type, value)
+                  : value);
+        }
+        return values;
+      }
+
+      final String optionValue = singleValue(args, option);
+      if (optionValue == null) {
+        final List<String> names = new ArrayList<>();
+        names.add(option.name());
+        names.addAll(Arrays.asList(option.aliases()));
+        final Object defaultValue = getDefaultFieldValue(clazz, names);
+        if (defaultValue != null) {
+          return defaultValue;
+        } else if (option.required()) {
+          throw new RequiredOptionException("Required option " + option.name() + " not found");
+        }
+        return null;
+      }
+
+      if (option.isFlag()) {
+        return Boolean.valueOf(optionValue);
+      }
+
+      if (option.nargs() > 0) {
+        final String[] strings = optionValue.split(" ");
+        if (strings.length != option.nargs()) {
+          throw new IllegalArgumentException(option.name() + " requires " + option.nargs());
+        }
+        if (String.class.isAssignableFrom(type)) {
+          return Arrays.asList(strings);
+        }
+        final List<Number> numbers = new ArrayList<>(strings.length);
+        for (String string : strings) {
+          numbers.add(parseNumber((Class<? extends Number>) type, string));
+        }
+        return numbers;
+      }
+      return Number.class.isAssignableFrom(type)
+          ? parseNumber((Class<? extends Number>) type, optionValue)
+          : optionValue;
+    }
+
+    private static String singleValue(String[] args, Option option) {
+      for (int i = 0; i < args.length; i++) {
+        if (args[i].equals(option.name()) || Arrays.asList(option.aliases()).contains(args[i])) {
+          if (option.isFlag()) {
+            return "true";
+          }
+          if (i + 2 > args.length) {
+            throw new IllegalArgumentException("Option values must appear after the option name");
+          }
+          return args[i + 1];
+        }
+      }
+      return option.isFlag() ? "false" : null;
+    }
+
+    private static List<String> multipleValues(String[] args, Option option) {
+      final List<String> values = new ArrayList<>();
+      for (int i = 0; i < args.length; i++) {
+        if (args[i].equals(option.name())) {
+          if (option.isFlag()) {
+            throw new IllegalArgumentException("Cannot have multiple values for flags.");
+          }
+          if (i + 2 > args.length) {
+            throw new IllegalArgumentException("Option values must appear after the option name");
+          }
+          values.add(args[i + 1]);
+        }
+      }
+      if (option.required() && values.isEmpty()) {
+        throw new RequiredOptionException("Required option " + option.name() + " not found");
+      }
+      return values;
+    }
+
+    private static Number parseNumber(Class<? extends Number> type, String value) {
+      if (type.equals(Byte.class)) {
+        return Byte.valueOf(value);
+      } else if (type.equals(Short.class)) {
+        return Short.valueOf(value);
+      } else if (type.equals(Integer.class)) {
+        return Integer.valueOf(value);
+      } else if (type.equals(Long.class)) {
+        return Long.valueOf(value);
+      } else if (type.equals(Float.class)) {
+        return Float.valueOf(value);
+      } else if (type.equals(Double.class)) {
+        return Double.valueOf(value);
+      }
+      throw new IllegalArgumentException("Cannot parse " + type);
+    }
+  }
+}
@@ -2,27 +2,78 @@ package com.stephenfox.scythe;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import com.stephenfox.scythe.annotation.Alias;
+import com.stephenfox.scythe.annotation.Constraint;
 import com.stephenfox.scythe.annotation.Option;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 @SuppressWarnings("unused")
 public class ScytheTest {
 
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   private static String[] args(String... args) {
     return args;
   }
 
+  private File file(String name, String... lines) throws IOException {
+    final File file = temporaryFolder.newFile(name);
+    Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+    return file;
+  }
+
+  /** Replace the contents of a file in one step, so a watcher never reads it half written. */
+  private static void replace(File file, String... lines) throws IOException {
+    final Path temporary = Files.createTempFile(file.toPath().getParent(), "replace", ".tmp");
+    Files.write(temporary, Arrays.asList(lines), StandardCharsets.UTF_8);
+    Files.move(
+        temporary,
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
   // --------------------------
   // Test flag.
   // --------------------------
@@ -62,6 +113,21 @@ public class ScytheTest {
     assertFalse((Boolean) parse.get("--is_robot"));
   }
 
+  @Test
+  public void testOptionWithoutLeadingDash() {
+    final Object clazz =
+        new Object() {
+          @Option(name = "port", type = Integer.class)
+          @Option(name = "verbose", isFlag = true)
+          private Object field;
+        };
+
+    final Map<String, Object> parse =
+        Scythe.cli(args("port", "80", "verbose"), clazz.getClass()).parse();
+    assertEquals(80, parse.get("port"));
+    assertTrue((Boolean) parse.get("verbose"));
+  }
+
   // --------------------------
   // Test multiple args.
   // --------------------------
@@ -424,6 +490,111 @@ public class ScytheTest {
     assertEquals("DOCKER_HOST=127.0.0.1", parse1.get("-e"));
   }
 
+  // ---------------------------------------------
+  // Test compact syntax.
+  // ---------------------------------------------
+  @Test
+  public void testCompactSyntaxEquals() {
+    final Object clazz =
+        new Object() {
+          @Option(
+              name = "--environment",
+              aliases = {"--env"})
+          @Option(name = "--port", type = Integer.class)
+          private Object field;
+        };
+
+    final Map<String, Object> parse =
+        Scythe.cli(args("--env=DOCKER_HOST=127.0.0.1", "--port=8080"), clazz.getClass()).parse();
+    assertEquals("DOCKER_HOST=127.0.0.1", parse.get("--environment"));
+    assertEquals(8080, parse.get("--port"));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testCompactSyntaxEqualsWithMultiple() {
+    final Object clazz =
+        new Object() {
+          @Option(name = "--env", multiple = true)
+          private Object field;
+        };
+
+    final Map<String, Object> parse =
+        Scythe.cli(args("--env=HOST", "--env", "PORT", "--env="), clazz.getClass()).parse();
+    assertEquals(3, ((List<String>) parse.get("--env")).size());
+    assertEquals("HOST", ((List<String>) parse.get("--env")).get(0));
+    assertEquals("PORT", ((List<String>) parse.get("--env")).get(1));
+    assertEquals("", ((List<String>) parse.get("--env")).get(2));
+  }
+
+  @Test
+  public void testCompactSyntaxClusteredFlags() {
+    final Object clazz =
+        new Object() {
+          @Option(
+              name = "--all",
+              aliases = {"-a"},
+              isFlag = true)
+          @Option(
+              name = "--long",
+              aliases = {"-l"},
+              isFlag = true)
+          @Option(
+              name = "--human",
+              aliases = {"-h"},
+              isFlag = true)
+          private Object field;
+        };
+
+    final Map<String, Object> parse = Scythe.cli(args("-al"), clazz.getClass()).parse();
+    assertTrue((Boolean) parse.get("--all"));
+    assertTrue((Boolean) parse.get("--long"));
+    assertFalse((Boolean) parse.get("--human"));
+  }
+
+  @Test
+  public void testCompactSyntaxAttachedValue() {
+    final Object clazz =
+        new Object() {
+          @Option(
+              name = "--verbose",
+              aliases = {"-v"},
+              isFlag = true)
+          @Option(
+              name = "--port",
+              aliases = {"-p"},
+              type = Integer.class)
+          private Object field;
+        };
+
+    final Map<String, Object> parse1 = Scythe.cli(args("-p8080"), clazz.getClass()).parse();
+    assertEquals(8080, parse1.get("--port"));
+    assertFalse((Boolean) parse1.get("--verbose"));
+
+    final Map<String, Object> parse2 = Scythe.cli(args("-vp8080"), clazz.getClass()).parse();
+    assertEquals(8080, parse2.get("--port"));
+    assertTrue((Boolean) parse2.get("--verbose"));
+
+    final Map<String, Object> parse3 = Scythe.cli(args("-vp", "8080"), clazz.getClass()).parse();
+    assertEquals(8080, parse3.get("--port"));
+    assertTrue((Boolean) parse3.get("--verbose"));
+  }
+
+  @Test
+  public void testCompactSyntaxUnknownClusterIgnored() {
+    final Object clazz =
+        new Object() {
+          @Option(
+              name = "--verbose",
+              aliases = {"-v"},
+              isFlag = true)
+          private Object field;
+        };
+
+    final Map<String, Object> parse = Scythe.cli(args("-vx"), clazz.getClass()).parse();
+    assertFalse((Boolean) parse.get("--verbose"));
+  }
+
   // ---------------------------------------------
   // Test default values.
   // ---------------------------------------------
@@ -492,4 +663,1425 @@ public class ScytheTest {
   public void tetDefaultValuesWithIncorrectName() {
     final Map<String, Object> parse = Scythe.cli(args(), DefaultWrongNames.class).parse();
   }
+
+  // ---------------------------------------------
+  // Test environment and configuration files.
+  // ---------------------------------------------
+  private static class Layered {
+    @Option(name = "--host", env = "APP_HOST")
+    @Option(name = "--port", env = "APP_PORT", type = Integer.class)
+    @Option(
+        name = "--verbose",
+        aliases = {"-v"},
+        isFlag = true)
+    @Option(name = "--tag", multiple = true, required = false)
+    @Option(name = "--size", nargs = 2, type = Integer.class, required = false)
+    @Option(name = "--timeout", type = Integer.class)
+    private Object options;
+
+    private static Integer timeout = 30;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testConfigProperties() throws IOException {
+    final File properties =
+        file(
+            "app.properties",
+            "# comment",
+            "host = example.com",
+            "port:8080",
+            "v=true",
+            "tag=a",
+            "tag = b",
+            "unknown=1",
+            "size=2 4");
+
+    final Map<String, Object> parse =
+        Scythe.cli(args(), Layered.class)
+            .environment(new HashMap<>())
+            .config(properties.toPath())
+            .parse();
+    assertEquals("example.com", parse.get("--host"));
+    assertEquals(8080, parse.get("--port"));
+    assertTrue((Boolean) parse.get("--verbose"));
+    assertEquals(Arrays.asList("a", "b"), parse.get("--tag"));
+    assertEquals(Arrays.asList(2, 4), parse.get("--size"));
+    assertEquals(30, parse.get("--timeout"));
+  }
+
+  @Test
+  public void testConfigLargeProperties() throws IOException {
+    // Large enough to be memory mapped rather than read onto the heap.
+    final String[] lines = new String[5000];
+    for (int i = 0; i < lines.length - 1; i++) {
+      lines[i] = "# padding padding padding padding " + i;
+    }
+    lines[lines.length - 1] = "host = example.com";
+    final File properties = file("large.properties", lines);
+
+    final Map<String, Object> parse =
+        Scythe.cli(args("--port", "1"), Layered.class)
+            .environment(new HashMap<>())
+            .config(properties.toPath())
+            .parse();
+    assertEquals("example.com", parse.get("--host"));
+  }
+
+  @Test
+  public void testConfigJson() throws IOException {
+    final File json =
+        file(
+            "app.json",
+            "{",
+            "  \"nested\": {\"host\": \"nested.com\", \"list\": [1, [2]]},",
+            "  \"host\": \"ex\\\"ample\\u0021\",",
+            "  \"port\": 8080,",
+            "  \"verbose\": false,",
+            "  \"tag\": [\"a\", \"b\"],",
+            "  \"size\": [2, 4],",
+            "  \"timeout\": null",
+            "}");
+
+    final Map<String, Object> parse =
+        Scythe.cli(args(), Layered.class)
+            .environment(new HashMap<>())
+            .config(json.toPath())
+            .parse();
+    assertEquals("ex\"ample!", parse.get("--host"));
+    assertEquals(8080, parse.get("--port"));
+    assertFalse((Boolean) parse.get("--verbose"));
+    assertEquals(Arrays.asList("a", "b"), parse.get("--tag"));
+    assertEquals(Arrays.asList(2, 4), parse.get("--size"));
+    assertEquals(30, parse.get("--timeout"));
+  }
+
+  @Test
+  public void testConfigPrecedence() throws IOException {
+    final File first = file("first.properties", "host=first.com", "port=1");
+    final File second = file("second.json", "{\"host\": \"second.com\", \"timeout\": 5}");
+    final Map<String, String> environment = new HashMap<>();
+    environment.put("APP_PORT", "2");
+
+    final Map<String, Object> parse =
+        Scythe.cli(args("--host", "cli.com"), Layered.class)
+            .environment(environment)
+            .config(first.toPath(), second.toPath())
+            .parse();
+    assertEquals("cli.com", parse.get("--host"));
+    assertEquals(2, parse.get("--port"));
+    assertEquals(5, parse.get("--timeout"));
+  }
+
+  // ---------------------------------------------
+  // Test watching configuration files.
+  // ---------------------------------------------
+  private static final AtomicInteger countedConversions = new AtomicInteger();
+
+  private static class Counted {
+    Counted(String value) {
+      countedConversions.incrementAndGet();
+    }
+  }
+
+  private static class Watched {
+    @Option(name = "--host")
+    @Option(name = "--key", type = Counted.class)
+    @Option(name = "--tag", multiple = true, required = false)
+    private Object options;
+  }
+
+  @Test
+  public void testWatchReloadParsesOnlyChangedOptions() throws IOException {
+    final File properties = file("watched.properties", "host=a.com", "key=secret");
+    countedConversions.set(0);
+
+    try (ConfigWatcher watcher =
+        Scythe.cli(args(), Watched.class)
+            .environment(new HashMap<>())
+            .config(properties.toPath())
+            .watch()) {
+      final Map<String, Object> first = watcher.current();
+      assertEquals("a.com", first.get("--host"));
+      assertEquals(1, countedConversions.get());
+
+      assertFalse(watcher.reload());
+      assertSame(first, watcher.current());
+
+      // The watching thread may reload first, in which case this finds nothing changed.
+      replace(properties, "host=b.com", "key=secret");
+      watcher.reload();
+      assertEquals("b.com", watcher.current().get("--host"));
+      assertSame(first.get("--key"), watcher.current().get("--key"));
+      assertEquals(1, countedConversions.get());
+    }
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testWatchResultIsImmutable() throws IOException {
+    final File properties = file("immutable.properties", "host=a.com", "key=secret");
+    try (ConfigWatcher watcher =
+        Scythe.cli(args(), Watched.class).config(properties.toPath()).watch()) {
+      watcher.current().put("--host", "b.com");
+    }
+  }
+
+  @Test
+  public void testWatchResultListsAreNotShared() throws IOException {
+    final File properties = file("lists.properties", "host=a.com", "key=secret", "tag=x");
+    try (ConfigWatcher watcher =
+        Scythe.cli(args(), Watched.class)
+            .environment(new HashMap<>())
+            .config(properties.toPath())
+            .watch()) {
+      final List<?> first = (List<?>) watcher.current().get("--tag");
+      try {
+        first.clear();
+        fail("Expected an unmodifiable list");
+      } catch (UnsupportedOperationException e) {
+        // Expected.
+      }
+
+      replace(properties, "host=b.com", "key=secret", "tag=x");
+      watcher.reload();
+      final List<?> second = (List<?>) watcher.current().get("--tag");
+      assertEquals(Collections.singletonList("x"), second);
+      assertNotSame(first, second);
+    }
+  }
+
+  @Test
+  public void testWatchPublishesOnChange() throws IOException, InterruptedException {
+    final File properties = file("published.properties", "host=a.com", "key=secret");
+    final BlockingQueue<Map<String, Object>> published = new LinkedBlockingQueue<>();
+
+    try (ConfigWatcher watcher =
+        Scythe.cli(args(), Watched.class)
+            .environment(new HashMap<>())
+            .config(properties.toPath())
+            .watch()
+            .subscribe(published::add)) {
+      replace(properties, "host=b.com", "key=secret");
+
+      final Map<String, Object> result = published.poll(30, TimeUnit.SECONDS);
+      assertNotNull(result);
+      assertEquals("b.com", result.get("--host"));
+      assertEquals("b.com", watcher.current().get("--host"));
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testWatchMethodOptions() {
+    Scythe.cli(args("--forename", "Stephen", "--surname", "Fox"), Main1.class).watch();
+  }
+
+  // ---------------------------------------------
+  // Test constraints.
+  // ---------------------------------------------
+  private static class Constrained {
+    @Option(name = "--file", required = false)
+    @Option(name = "--url", required = false)
+    @Option(name = "--user", required = false)
+    @Option(
+        name = "--password",
+        aliases = {"-p"},
+        required = false)
+    @Option(name = "--insecure", isFlag = true)
+    @Constraint(
+        kind = Constraint.Kind.MUTUALLY_EXCLUSIVE,
+        options = {"--file", "--url"})
+    @Constraint(
+        kind = Constraint.Kind.AT_LEAST_ONE,
+        options = {"--file", "--url"})
+    @Constraint(
+        kind = Constraint.Kind.GROUP,
+        options = {"--user", "-p"})
+    @Constraint(
+        kind = Constraint.Kind.REQUIRES,
+        options = {"--insecure", "--url"})
+    private Object options;
+  }
+
+  @Test
+  public void testConstraintsMet() {
+    final Map<String, Object> parse =
+        Scythe.cli(
+                args("--url", "a.com", "--user", "u", "-p", "p", "--insecure"), Constrained.class)
+            .parse();
+    assertEquals("a.com", parse.get("--url"));
+    assertTrue((Boolean) parse.get("--insecure"));
+
+    Scythe.cli(args("--file", "a.txt"), Constrained.class).parse();
+  }
+
+  @Test(expected = ConstraintViolationException.class)
+  public void testConstraintMutuallyExclusive() {
+    Scythe.cli(args("--file", "a.txt", "--url", "a.com"), Constrained.class).parse();
+  }
+
+  @Test(expected = ConstraintViolationException.class)
+  public void testConstraintAtLeastOne() {
+    Scythe.cli(args("--user", "u", "-p", "p"), Constrained.class).parse();
+  }
+
+  @Test(expected = ConstraintViolationException.class)
+  public void testConstraintGroup() {
+    Scythe.cli(args("--file", "a.txt", "--user", "u"), Constrained.class).parse();
+  }
+
+  @Test(expected = ConstraintViolationException.class)
+  public void testConstraintRequires() {
+    Scythe.cli(args("--file", "a.txt", "--insecure"), Constrained.class).parse();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConstraintUnknownOption() {
+    final Object clazz =
+        new Object() {
+          @Option(name = "--a", required = false)
+          @Constraint(
+              kind = Constraint.Kind.GROUP,
+              options = {"--a", "--b"})
+          private Object field;
+        };
+    Scythe.cli(args(), clazz.getClass()).parse();
+  }
+
+  // ---------------------------------------------
+  // Test help.
+  // ---------------------------------------------
+  private static class Help {
+    @Option(
+        name = "--verbose",
+        aliases = {"-v"},
+        isFlag = true,
+        help = "Print more.")
+    @Option(
+        name = "--host",
+        type = String.class,
+        group = "Connection",
+        help = "The host to connect to, this help is long enough that it has to wrap.")
+    @Option(
+        name = "--port",
+        type = Integer.class,
+        group = "Connection",
+        help = "The port to connect to.")
+    private Object options;
+  }
+
+  @Test
+  public void testHelp() {
+    final String n = System.lineSeparator();
+    assertEquals(
+        "  --verbose, -v   Print more."
+            + n
+            + n
+            + "Connection:"
+            + n
+            + "  --host String   The host to connect to, this help is long enough that it has"
+            + n
+            + "                  to wrap."
+            + n
+            + "  --port Integer  The port to connect to."
+            + n,
+        Scythe.cli(args(), Help.class).help());
+  }
+
+  @Test
+  public void testHelpOutputDoesNotParse() {
+    final StringBuilder output = new StringBuilder();
+    final Map<String, Object> parse =
+        Scythe.cli(args("--help"), Help.class).helpOutput(output).parse();
+
+    assertNull(parse);
+    assertEquals(Scythe.cli(args(), Help.class).help(), output.toString());
+  }
+
+  // ---------------------------------------------
+  // Test interning.
+  // ---------------------------------------------
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testInternMultiple() {
+    final Object clazz =
+        new Object() {
+          @Option(name = "--tag", type = CustomClass.class, multiple = true, intern = true)
+          @Option(name = "--label", type = CustomClass.class, multiple = true)
+          private Object field;
+        };
+
+    final Map<String, Object> parse =
+        Scythe.cli(
+                args("--tag", "a", "--tag", "b", "--tag", "a", "--label", "a", "--label", "a"),
+                clazz.getClass())
+            .parse();
+    final List<CustomClass> tags = (List<CustomClass>) parse.get("--tag");
+    assertEquals(
+        Arrays.asList(new CustomClass("a"), new CustomClass("b"), new CustomClass("a")), tags);
+    assertSame(tags.get(0), tags.get(2));
+
+    final List<CustomClass> labels = (List<CustomClass>) parse.get("--label");
+    assertNotSame(labels.get(0), labels.get(1));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testInternNargs() {
+    final Object clazz =
+        new Object() {
+          @Option(name = "--names", nargs = 3, intern = true)
+          private Object field;
+        };
+
+    final List<String> names =
+        (List<String>)
+            Scythe.cli(args("--names", "stephen steve stephen"), clazz.getClass())
+                .parse()
+                .get("--names");
+    assertEquals(Arrays.asList("stephen", "steve", "stephen"), names);
+    assertSame(names.get(0), names.get(2));
+  }
+
+  @Test
+  public void testInternConcurrentSharesOneInstance() throws Exception {
+    // Both threads convert the value before either stores it.
+    final CyclicBarrier converting = new CyclicBarrier(2);
+    final Converter interning =
+        Converters.interning(
+            value -> {
+              try {
+                converting.await(30, TimeUnit.SECONDS);
+              } catch (Exception e) {
+                throw new IllegalStateException(e);
+              }
+              return new CustomClass(value);
+            },
+            true);
+
+    final Object[] converted = new Object[2];
+    final Thread other = new Thread(() -> converted[1] = interning.convert("a"));
+    other.start();
+    converted[0] = interning.convert("a");
+    other.join();
+    assertSame(converted[0], converted[1]);
+  }
+
+  // ---------------------------------------------
+  // Test parallel conversion.
+  // ---------------------------------------------
+  private static class Parallel {
+    @Option(name = "--n", type = Integer.class, multiple = true, parallelThreshold = 100)
+    private Object options;
+  }
+
+  private static class ParallelValidated {
+    @Option(name = "--p", type = Integer.class, multiple = true, min = 0, parallelThreshold = 100)
+    private Object options;
+  }
+
+  private static String[] repeated(String option, List<String> values) {
+    final List<String> args = new ArrayList<>(values.size() * 2);
+    for (String value : values) {
+      args.add(option);
+      args.add(value);
+    }
+    return args.toArray(new String[0]);
+  }
+
+  @Test
+  public void testParallelConversionKeepsOrder() {
+    final List<String> values = new ArrayList<>();
+    final List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      values.add(String.valueOf(i));
+      expected.add(i);
+    }
+
+    final Map<String, Object> parse = Scythe.cli(repeated("--n", values), Parallel.class).parse();
+    assertEquals(expected, parse.get("--n"));
+  }
+
+  @Test
+  public void testParallelConversionCollectsErrors() {
+    final List<String> values = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      values.add(i % 1000 == 0 ? "x" + i : String.valueOf(i));
+    }
+
+    try {
+      Scythe.cli(repeated("--n", values), Parallel.class).parse();
+      fail("Expected NumberFormatException");
+    } catch (NumberFormatException e) {
+      assertTrue(e.getMessage().contains("x0"));
+      assertEquals(4, e.getSuppressed().length);
+      assertTrue(e.getSuppressed()[0].getMessage().contains("x1000"));
+      assertTrue(e.getSuppressed()[3].getMessage().contains("x4000"));
+    }
+  }
+
+  @Test(expected = InvalidValueException.class)
+  public void testParallelConversionKeepsExceptionType() {
+    final List<String> values = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      values.add(String.valueOf(i - 1));
+    }
+    Scythe.cli(repeated("--p", values), ParallelValidated.class).parse();
+  }
+
+  // ---------------------------------------------
+  // Test shell.
+  // ---------------------------------------------
+  @Test
+  public void testShell() throws IOException {
+    final StringBuilder out = new StringBuilder();
+    final String n = System.lineSeparator();
+    final Shell shell = Scythe.cli(args(), Main1.class).shell();
+    shell.run(
+        new BufferedReader(
+            new StringReader(
+                "--forename 'Stephen John' --surname \"F\\\"ox\"\n"
+                    + "--forename Stephen\n"
+                    + "!1\n"
+                    + "exit\n"
+                    + "--forename Never --surname Run\n")),
+        out);
+
+    assertEquals(
+        Arrays.asList("Stephen John", "F\"ox", "Stephen John", "F\"ox"), parsedArgsFromMethodCall);
+    assertEquals(
+        "> > error: Required option --surname not found"
+            + n
+            + "> --forename 'Stephen John' --surname \"F\\\"ox\""
+            + n
+            + "> ",
+        out.toString());
+    assertEquals(3, shell.history().size());
+  }
+
+  @Test
+  public void testShellComplete() {
+    final Shell shell = Scythe.cli(args(), Main1.class).shell();
+    assertEquals(Arrays.asList("--forename", "--surname"), shell.complete(""));
+    assertEquals(Arrays.asList("--surname"), shell.complete("--s"));
+    assertEquals(Arrays.asList("--surname"), shell.complete("--forename Stephen "));
+    assertEquals(Arrays.asList(), shell.complete("--forename 'Stephen "));
+  }
+
+  private static class ThrowingMain {
+    @Option(name = "--name", order = 1)
+    public static void main(String name) {
+      throw new IllegalArgumentException("No such user " + name);
+    }
+  }
+
+  @Test
+  public void testShellMethodError() throws IOException {
+    final StringBuilder out = new StringBuilder();
+    final Shell shell = Scythe.cli(args(), ThrowingMain.class).shell();
+    assertTrue(shell.execute("--name stephen", out));
+    assertEquals("error: No such user stephen" + System.lineSeparator(), out.toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMethodErrorIsRethrown() {
+    Scythe.cli(args("--name", "stephen"), ThrowingMain.class).parse();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testShellFieldOptions() {
+    Scythe.cli(args(), Layered.class).shell();
+  }
+
+  // ---------------------------------------------
+  // Test file types.
+  // ---------------------------------------------
+  private static class FileOptions {
+    @Option(name = "--path", type = Path.class, required = false)
+    @Option(name = "--mapped", type = ByteBuffer.class, required = false)
+    @Option(name = "--in", type = InputStream.class, required = false)
+    @Option(name = "--channel", type = ReadableByteChannel.class, required = false)
+    private Object options;
+  }
+
+  private static String read(InputStream in) throws IOException {
+    final StringBuilder builder = new StringBuilder();
+    for (int b = in.read(); b != -1; b = in.read()) {
+      builder.append((char) b);
+    }
+    return builder.toString();
+  }
+
+  @Test
+  public void testFileTypes() throws IOException {
+    final String path = file("input.txt", "hello").getPath();
+    final Map<String, Object> parse =
+        Scythe.cli(
+                args("--path", path, "--mapped", path, "--in", path, "--channel", path),
+                FileOptions.class)
+            .parse();
+
+    assertEquals(new File(path).toPath(), parse.get("--path"));
+
+    final String expected = "hello" + System.lineSeparator();
+    final ByteBuffer mapped = (ByteBuffer) parse.get("--mapped");
+    assertEquals(expected, StandardCharsets.UTF_8.decode(mapped).toString());
+
+    assertEquals(expected, read((InputStream) parse.get("--in")));
+
+    final ReadableByteChannel channel = (ReadableByteChannel) parse.get("--channel");
+    final ByteBuffer buffer = ByteBuffer.allocate(64);
+    channel.read(buffer);
+    buffer.flip();
+    assertEquals(expected, StandardCharsets.UTF_8.decode(buffer).toString());
+
+    Scythe.close(parse);
+    assertFalse(channel.isOpen());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFileTypeMissingFile() {
+    final File missing = new File(temporaryFolder.getRoot(), "missing");
+    Scythe.cli(args("--in", missing.getPath()), FileOptions.class).parse();
+  }
+
+  @Test
+  public void testFileTypeStdin() throws IOException {
+    final InputStream stdin = System.in;
+    try {
+      System.setIn(new ByteArrayInputStream("piped".getBytes(StandardCharsets.UTF_8)));
+      final Map<String, Object> parse = Scythe.cli(args("--in", "-"), FileOptions.class).parse();
+      assertEquals("piped", read((InputStream) parse.get("--in")));
+    } finally {
+      System.setIn(stdin);
+    }
+  }
+
+  // ---------------------------------------------
+  // Test interpolation.
+  // ---------------------------------------------
+  private static class Interpolated {
+    @Option(name = "--root")
+    @Option(name = "--logs")
+    @Option(name = "--data", multiple = true)
+    @Option(name = "--user")
+    private Object options;
+
+    private static String user = "${sys:scythe.test.user}";
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testInterpolation() {
+    final Map<String, String> environment = new HashMap<>();
+    environment.put("HOME", "/home/stephen");
+    System.setProperty("scythe.test.user", "stephen");
+    try {
+      final Map<String, Object> parse =
+          Scythe.cli(
+                  args(
+                      "--logs", "${opt:--root}/logs",
+                      "--root", "${HOME}/app",
+                      "--data", "${opt:--root}/a",
+                      "--data", "$${literal}"),
+                  Interpolated.class)
+              .environment(environment)
+              .interpolate()
+              .parse();
+      assertEquals("/home/stephen/app", parse.get("--root"));
+      assertEquals("/home/stephen/app/logs", parse.get("--logs"));
+      assertEquals(Arrays.asList("/home/stephen/app/a", "${literal}"), parse.get("--data"));
+      assertEquals("stephen", parse.get("--user"));
+    } finally {
+      System.clearProperty("scythe.test.user");
+    }
+  }
+
+  private static class InterpolatedDefault {
+    @Option(name = "--root")
+    @Option(name = "--logs")
+    private Object options;
+
+    private static String root = "/opt/app";
+  }
+
+  @Test
+  public void testInterpolationOfPlainDefault() {
+    final Map<String, Object> parse =
+        Scythe.cli(args("--logs", "${opt:--root}/logs"), InterpolatedDefault.class)
+            .environment(new HashMap<>())
+            .interpolate()
+            .parse();
+    assertEquals("/opt/app", parse.get("--root"));
+    assertEquals("/opt/app/logs", parse.get("--logs"));
+  }
+
+  @Test
+  public void testInterpolationDisabled() {
+    final Map<String, Object> parse =
+        Scythe.cli(
+                args("--logs", "${opt:--root}", "--root", "r", "--data", "d", "--user", "u"),
+                Interpolated.class)
+            .parse();
+    assertEquals("${opt:--root}", parse.get("--logs"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInterpolationCycle() {
+    Scythe.cli(
+            args(
+                "--logs", "${opt:--root}", "--root", "${opt:--logs}", "--data", "d", "--user", "u"),
+            Interpolated.class)
+        .interpolate()
+        .parse();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInterpolationUnresolved() {
+    Scythe.cli(
+            args("--logs", "l", "--root", "${MISSING}", "--data", "d", "--user", "u"),
+            Interpolated.class)
+        .environment(new HashMap<>())
+        .interpolate()
+        .parse();
+  }
+
+  // ---------------------------------------------
+  // Test metrics.
+  // ---------------------------------------------
+  private static class Metered {
+    @Option(name = "--port", aliases = "-p", type = Integer.class, required = false)
+    @Option(name = "--host", type = String.class, required = false)
+    @Option(name = "--verbose", aliases = "-v", isFlag = true)
+    private Object options;
+
+    private static final String host = "localhost";
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    final ParseMetrics metrics = new ParseMetrics();
+    Scythe.cli(args("--port", "80", "-v"), Metered.class).metrics(metrics).parse();
+    Scythe.cli(args("-vp", "8080"), Metered.class).metrics(metrics).parse();
+    try {
+      Scythe.cli(args("-p", "eighty"), Metered.class).metrics(metrics).parse();
+      fail();
+    } catch (NumberFormatException expected) {
+      // Counted as an error.
+    }
+
+    assertEquals(3, metrics.getParseCount());
+    final Map<String, Long> expectedNames = new HashMap<>();
+    expectedNames.put("--port", 1L);
+    expectedNames.put("-p", 2L);
+    expectedNames.put("-v", 2L);
+    assertEquals(expectedNames, metrics.getNameUsage());
+    assertEquals(Long.valueOf(2), metrics.getDefaultsUsed().get("--host"));
+    assertEquals(Long.valueOf(1), metrics.getErrors().get("NumberFormatException"));
+
+    final Map<String, Long> latency = metrics.getLatencyPercentiles();
+    assertTrue(latency.get("p50") > 0);
+    assertTrue(latency.get("p50") <= latency.get("p999"));
+    assertTrue(latency.get("p999") <= latency.get("max"));
+
+    final Path dump = temporaryFolder.getRoot().toPath().resolve("metrics.properties");
+    metrics.dump(dump);
+    final List<String> lines = Files.readAllLines(dump);
+    assertEquals("parses=3", lines.get(0));
+    assertTrue(lines.contains("name.-p=2"));
+    assertTrue(lines.contains("default.--host=2"));
+    assertTrue(lines.contains("error.NumberFormatException=1"));
+  }
+
+  @Test
+  public void testMetricsNamesMatchScanner() {
+    final ParseMetrics metrics = new ParseMetrics();
+    Scythe.cli(args("--verb", "--PORT", "1", "-vx"), Metered.class)
+        .abbreviations()
+        .ignoreCase()
+        .metrics(metrics)
+        .parse();
+
+    final Map<String, Long> expectedNames = new HashMap<>();
+    expectedNames.put("--verbose", 1L);
+    expectedNames.put("--port", 1L);
+    assertEquals(expectedNames, metrics.getNameUsage());
+  }
+
+  @Test
+  public void testMetricsJmx() throws Exception {
+    final ParseMetrics metrics = new ParseMetrics().register("testMetricsJmx");
+    Scythe.cli(args("--port", "80"), Metered.class).metrics(metrics).parse();
+
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName name =
+        new ObjectName("com.stephenfox.scythe:type=ParseMetrics,name=\"testMetricsJmx\"");
+    try {
+      assertEquals(1L, server.getAttribute(name, "ParseCount"));
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+
+  @Test
+  public void testLatencyHistogramBuckets() {
+    for (long value = 0; value < 100_000; value += 7) {
+      final int index = LatencyHistogram.indexOf(value);
+      assertTrue(LatencyHistogram.highestValueOf(index) >= value);
+      assertTrue(index == 0 || LatencyHistogram.highestValueOf(index - 1) < value);
+    }
+    assertEquals(
+        Long.MAX_VALUE, LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+  }
+
+  // ---------------------------------------------
+  // Test abbreviations and case insensitive names.
+  // ---------------------------------------------
+  private static class Abbreviated {
+    @Option(name = "--verbose", isFlag = true)
+    @Option(name = "--version", isFlag = true)
+    @Option(name = "--port", type = Integer.class, required = false)
+    @Option(name = "--portal", aliases = "--gateway", type = String.class, required = false)
+    @Option(name = "-v", type = String.class, required = false)
+    @Option(name = "-V", type = String.class, required = false)
+    private Object options;
+  }
+
+  @Test
+  public void testAbbreviations() {
+    final Map<String, Object> parse =
+        Scythe.cli(args("--verb", "--port", "80", "--porta=p", "-v", "a"), Abbreviated.class)
+            .abbreviations()
+            .parse();
+    assertEquals(true, parse.get("--verbose"));
+    assertEquals(false, parse.get("--version"));
+    assertEquals(80, parse.get("--port"));
+    assertEquals("p", parse.get("--portal"));
+    assertEquals("a", parse.get("-v"));
+  }
+
+  @Test
+  public void testAbbreviationOfAliases() {
+    final Map<String, Object> parse =
+        Scythe.cli(args("--gate", "g"), Abbreviated.class).abbreviations().parse();
+    assertEquals("g", parse.get("--portal"));
+  }
+
+  @Test
+  public void testAbbreviationsDisabled() {
+    final Map<String, Object> parse = Scythe.cli(args("--verb"), Abbreviated.class).parse();
+    assertEquals(false, parse.get("--verbose"));
+  }
+
+  @Test
+  public void testAmbiguousAbbreviation() {
+    try {
+      Scythe.cli(args("--ver"), Abbreviated.class).abbreviations().parse();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Ambiguous option --ver could be any of --verbose, --version", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testIgnoreCase() {
+    final Map<String, Object> parse =
+        Scythe.cli(args("--VERBOSE", "--Port", "80", "-V", "upper"), Abbreviated.class)
+            .ignoreCase()
+            .parse();
+    assertEquals(true, parse.get("--verbose"));
+    assertEquals(80, parse.get("--port"));
+    assertEquals("upper", parse.get("-V"));
+    assertNull(parse.get("-v"));
+  }
+
+  @Test
+  public void testIgnoreCaseWithAbbreviations() {
+    final Map<String, Object> parse =
+        Scythe.cli(args("--VERS"), Abbreviated.class).ignoreCase().abbreviations().parse();
+    assertEquals(true, parse.get("--version"));
+  }
+
+  @Test
+  public void testOptionTrie() {
+    final OptionTrie trie = Schema.of(Abbreviated.class).trie(false);
+    final int port = Schema.of(Abbreviated.class).slotOf("--port", 0, 6);
+    final int portal = Schema.of(Abbreviated.class).slotOf("--portal", 0, 8);
+    assertEquals(port, trie.slotOf("--port", 6, true));
+    assertEquals(portal, trie.slotOf("--porta", 7, true));
+    assertEquals(portal, trie.slotOf("--portal=x", 8, false));
+    assertEquals(OptionTrie.AMBIGUOUS, trie.slotOf("--po", 4, true));
+    assertEquals(-1, trie.slotOf("--po", 4, false));
+    assertEquals(-1, trie.slotOf("--other", 7, true));
+  }
+
+  // ---------------------------------------------
+  // Test fanning out over a multiple option.
+  // ---------------------------------------------
+  private static final AtomicInteger running = new AtomicInteger();
+  private static final AtomicInteger mostRunning = new AtomicInteger();
+
+  private static class FanOut {
+    @Option(name = "--host", type = String.class, multiple = true, order = 0)
+    @Option(name = "--retries", type = Integer.class, order = 1)
+    public static int check(List<String> hosts, Integer retries) throws InterruptedException {
+      mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(20);
+        assertEquals(1, hosts.size());
+        final String host = hosts.get(0);
+        if (host.equals("bad")) {
+          throw new IllegalStateException("Unreachable " + host);
+        }
+        if (host.equals("down")) {
+          return -1;
+        }
+        return host.equals("degraded") ? retries : 0;
+      } finally {
+        running.decrementAndGet();
+      }
+    }
+  }
+
+  @Test
+  public void testFanOut() {
+    mostRunning.set(0);
+    final FanOutResult result =
+        Scythe.cli(
+                args(
+                    "--host", "a", "--host", "bad", "--host", "degraded", "--host", "b", "--host",
+                    "c", "--retries", "3"),
+                FanOut.class)
+            .fanOut("--host", 2);
+
+    assertEquals(Arrays.asList("a", "bad", "degraded", "b", "c"), result.values());
+    assertEquals(Arrays.asList(0, null, 3, 0, 0), result.results());
+    assertNull(result.errors().get(0));
+    assertEquals("Unreachable bad", result.errors().get(1).getMessage());
+    assertFalse(result.succeeded());
+    assertEquals(1, result.exitCode());
+    assertTrue(mostRunning.get() <= 2);
+  }
+
+  @Test
+  public void testFanOutNegativeExitCode() {
+    final FanOutResult result =
+        Scythe.cli(
+                args("--host", "a", "--host", "down", "--host", "degraded", "--retries", "3"),
+                FanOut.class)
+            .fanOut("--host", 2);
+    assertTrue(result.succeeded());
+    assertEquals(-1, result.exitCode());
+  }
+
+  @Test
+  public void testFanOutSucceeded() {
+    final FanOutResult result =
+        Scythe.cli(args("--host", "a", "--host", "b", "--retries", "1"), FanOut.class)
+            .fanOut("--host", 4);
+    assertTrue(result.succeeded());
+    assertEquals(0, result.exitCode());
+  }
+
+  private static class FanOutEnumSet {
+    @Option(name = "--route", type = Route.class, multiple = true, enumSet = true, order = 0)
+    public static int route(EnumSet<Route> routes) {
+      return routes.size() == 1 ? 0 : 2;
+    }
+  }
+
+  @Test
+  public void testFanOutEnumSet() {
+    final FanOutResult result =
+        Scythe.cli(args("--route", "slow-path", "--route", "fast"), FanOutEnumSet.class)
+            .fanOut("--route", 2);
+    assertEquals(Arrays.asList(Route.FAST_PATH, Route.SLOW_PATH), result.values());
+    assertTrue(result.succeeded());
+    assertEquals(0, result.exitCode());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFanOutNotMultiple() {
+    Scythe.cli(args("--host", "a", "--retries", "1"), FanOut.class).fanOut("--retries", 4);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testFanOutFieldOptions() {
+    Scythe.cli(args(), Layered.class).fanOut("--host", 4);
+  }
+
+  // ---------------------------------------------
+  // Test caching parse results.
+  // ---------------------------------------------
+  private static final AtomicInteger conversions = new AtomicInteger();
+
+  private static class CountedName {
+    private final String value;
+
+    CountedName(String value) {
+      conversions.incrementAndGet();
+      this.value = value;
+    }
+  }
+
+  private static class Cached {
+    @Option(name = "--name", type = CountedName.class, required = false)
+    @Option(name = "--tag", type = String.class, multiple = true, required = false)
+    @Option(name = "--region", env = "APP_REGION", type = String.class, required = false)
+    private Object options;
+  }
+
+  private static class Uncacheable {
+    @Option(name = "--name", type = CountedName.class, deterministic = false)
+    private Object options;
+  }
+
+  @Test
+  public void testCache() {
+    conversions.set(0);
+    final ParseCache cache = ParseCache.ofSize(16);
+    final Map<String, String> environment = new HashMap<>();
+    environment.put("APP_REGION", "eu");
+
+    final Map<String, Object> first =
+        Scythe.cli(args("--name", "a", "--tag", "x"), Cached.class)
+            .environment(environment)
+            .cache(cache)
+            .parse();
+    final Map<String, Object> second =
+        Scythe.cli(args("--name", "a", "--tag", "x"), Cached.class)
+            .environment(environment)
+            .cache(cache)
+            .parse();
+    assertSame(first, second);
+    assertEquals(1, conversions.get());
+    assertEquals("eu", second.get("--region"));
+    assertEquals(1, cache.hitCount());
+    assertEquals(1, cache.missCount());
+
+    // A different value of an environment variable an option reads is a different parse.
+    environment.put("APP_REGION", "us");
+    final Map<String, Object> third =
+        Scythe.cli(args("--name", "a", "--tag", "x"), Cached.class)
+            .environment(environment)
+            .cache(cache)
+            .parse();
+    assertEquals("us", third.get("--region"));
+    assertEquals(2, conversions.get());
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testCacheKeyKeepsItsOwnArgs() {
+    final ParseCache cache = ParseCache.ofSize(16);
+    final String[] args = {"--tag", "x"};
+    for (String tag : Arrays.asList("x", "y", "x", "y")) {
+      args[1] = tag;
+      final Map<String, Object> parse =
+          Scythe.cli(args, Cached.class).environment(new HashMap<>()).cache(cache).parse();
+      assertEquals(Collections.singletonList(tag), parse.get("--tag"));
+    }
+    assertEquals(2, cache.hitCount());
+    assertEquals(2, cache.size());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  @SuppressWarnings("unchecked")
+  public void testCachedResultUnmodifiable() {
+    final Map<String, Object> parse =
+        Scythe.cli(args("--tag", "x"), Cached.class).cache(ParseCache.ofSize(1)).parse();
+    ((List<Object>) parse.get("--tag")).add("y");
+  }
+
+  @Test
+  public void testCacheEviction() {
+    final ParseCache cache = ParseCache.ofSize(2);
+    for (String name : Arrays.asList("a", "b", "a", "c", "a", "b")) {
+      Scythe.cli(args("--name", name), Cached.class).cache(cache).parse();
+    }
+    // a is used most recently before c, so b is evicted for c and then c for b.
+    assertEquals(2, cache.size());
+    assertEquals(2, cache.hitCount());
+    assertEquals(4, cache.missCount());
+    assertEquals(2, cache.evictionCount());
+  }
+
+  @Test
+  public void testCacheWeight() {
+    final ParseCache cache = ParseCache.ofWeight(12);
+    Scythe.cli(args("--name", "aaaa"), Cached.class).cache(cache).parse();
+    Scythe.cli(args("--name", "bbbb"), Cached.class).cache(cache).parse();
+    assertEquals(1, cache.size());
+    assertEquals(1, cache.evictionCount());
+  }
+
+  @Test
+  public void testCacheSkipsNonDeterministicOptions() {
+    conversions.set(0);
+    final ParseCache cache = ParseCache.ofSize(16);
+    Scythe.cli(args("--name", "a"), Uncacheable.class).cache(cache).parse();
+    Scythe.cli(args("--name", "a"), Uncacheable.class).cache(cache).parse();
+    assertEquals(2, conversions.get());
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.missCount());
+  }
+
+  // ---------------------------------------------
+  // Test encoding parse results.
+  // ---------------------------------------------
+  private static class Encoded {
+    @Option(name = "--name", type = String.class)
+    @Option(name = "--port", type = Integer.class)
+    @Option(name = "--offset", type = Long.class)
+    @Option(name = "--ratio", type = Double.class)
+    @Option(name = "--scale", type = Float.class)
+    @Option(name = "--verbose", isFlag = true)
+    @Option(name = "--tag", type = String.class, multiple = true)
+    @Option(name = "--dimensions", type = Integer.class, nargs = 2)
+    @Option(name = "--user", type = CountedName.class)
+    @Option(name = "--group", type = CountedName.class, required = false)
+    @Option(name = "--missing", type = String.class, required = false)
+    private Object options;
+
+    private static final CountedName group = new CountedName("staff");
+  }
+
+  @Test
+  public void testEncode() {
+    final String[] args =
+        args(
+            "--name", "é世", "--port", "-80", "--offset", "9000000000", "--ratio", "0.5",
+            "--scale", "1.5", "--verbose", "--tag", "a", "--tag", "b", "--dimensions", "2 3",
+            "--user", "stephen");
+    final Map<String, Object> expected = Scythe.cli(args, Encoded.class).parse();
+    final byte[] encoded = Scythe.cli(args, Encoded.class).encode();
+
+    conversions.set(0);
+    final Map<String, Object> decoded = Scythe.cli(args(), Encoded.class).parse(encoded);
+    assertEquals(1, conversions.get());
+    for (String name :
+        Arrays.asList(
+            "--name", "--port", "--offset", "--ratio", "--scale", "--verbose", "--tag",
+            "--dimensions", "--missing")) {
+      assertEquals(expected.get(name), decoded.get(name));
+    }
+    assertEquals("stephen", ((CountedName) decoded.get("--user")).value);
+    assertSame(Encoded.group, decoded.get("--group"));
+  }
+
+  @Test
+  public void testEncodeFingerprintMismatch() {
+    final byte[] encoded = Scythe.cli(args("--name", "a"), Cached.class).encode();
+    final Map<String, Object> parse =
+        Scythe.cli(args("--port", "80", "--offset", "1"), Abbreviated.class).parse(encoded);
+    assertEquals(80, parse.get("--port"));
+  }
+
+  private static class Fingerprinted {
+    @Option(
+        name = "--x",
+        aliases = {"--y"})
+    private Object options;
+  }
+
+  private static class FingerprintedJoined {
+    @Option(name = "--x--y")
+    private Object options;
+  }
+
+  @Test
+  public void testEncodeFingerprintSeparatesFields() {
+    assertFalse(
+        ResultCodec.fingerprint(Object.class, Schema.of(Fingerprinted.class).options)
+            == ResultCodec.fingerprint(Object.class, Schema.of(FingerprintedJoined.class).options));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEncodeTruncated() {
+    final byte[] encoded = Scythe.cli(args("--name", "abc"), Cached.class).encode();
+    Scythe.cli(args(), Cached.class).parse(Arrays.copyOf(encoded, encoded.length - 2));
+  }
+
+  // ---------------------------------------------
+  // Test value validation.
+  // ---------------------------------------------
+  private static class Validated {
+    @Option(name = "--port", type = Integer.class, min = 1, max = 65535, required = false)
+    @Option(name = "--ratio", type = Double.class, min = 0, max = 1, required = false)
+    @Option(name = "--host", type = String.class, pattern = "[a-z0-9.-]+", required = false)
+    @Option(name = "--code", type = String.class, minLength = 2, maxLength = 3, required = false)
+    @Option(
+        name = "--level",
+        type = String.class,
+        choices = {"debug", "info"},
+        multiple = true,
+        required = false)
+    @Option(name = "--size", type = Integer.class, nargs = 2, max = 10, required = false)
+    @Option(name = "--words", type = String.class, nargs = 2, choices = "a", required = false)
+    private Object options;
+  }
+
+  @Test
+  public void testValidValues() {
+    final Map<String, Object> parse =
+        Scythe.cli(
+                args(
+                    "--port", "65535", "--ratio", "0.5", "--host", "example.com", "--code", "ie",
+                    "--level", "debug", "--level", "info", "--size", "1 10", "--words", "a a"),
+                Validated.class)
+            .parse();
+    assertEquals(65535, parse.get("--port"));
+    assertEquals(Arrays.asList("debug", "info"), parse.get("--level"));
+    assertEquals(Arrays.asList(1, 10), parse.get("--size"));
+    assertEquals(Arrays.asList("a", "a"), parse.get("--words"));
+  }
+
+  @Test
+  public void testInvalidValues() {
+    assertInvalid("Value 0 of option --port is less than 1", "--port", "0");
+    assertInvalid("Value 65536 of option --port is greater than 65535", "--port", "65536");
+    assertInvalid("Value 1.5 of option --ratio is greater than 1.0", "--ratio", "1.5");
+    assertInvalid("Value NaN of option --ratio is not a number", "--ratio", "NaN");
+    assertInvalid("Value Example of option --host does not match [a-z0-9.-]+", "--host", "Example");
+    assertInvalid("Value i of option --code is shorter than 2 characters", "--code", "i");
+    assertInvalid("Value ieee of option --code is longer than 3 characters", "--code", "ieee");
+    assertInvalid("Value warn of option --level is not one of debug, info", "--level", "warn");
+    assertInvalid("Value 11 of option --size is greater than 10", "--size", "1 11");
+    assertInvalid("Value b of option --words is not one of a", "--words", "a b");
+  }
+
+  private static void assertInvalid(String message, String... args) {
+    try {
+      Scythe.cli(args, Validated.class).parse();
+      fail();
+    } catch (InvalidValueException e) {
+      assertEquals(message, e.getMessage());
+    }
+  }
+
+  @Test
+  public void testDecodedValuesAreValidated() {
+    final byte[] encoded = Scythe.cli(args("--port", "80"), Validated.class).encode();
+    // Change the encoded raw value 80 to 00, which is below the minimum.
+    final String latin1 = new String(encoded, StandardCharsets.ISO_8859_1);
+    final int at = latin1.lastIndexOf("80");
+    assertTrue(at > 0);
+    encoded[at] = '0';
+
+    try {
+      Scythe.cli(args(), Validated.class).parse(encoded);
+      fail();
+    } catch (InvalidValueException e) {
+      assertEquals("Value 00 of option --port is less than 1", e.getMessage());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRangeOfNonNumberOption() {
+    final Object object =
+        new Object() {
+          @Option(name = "--name", type = String.class, max = 10)
+          private Object options;
+        };
+    Scythe.cli(args("--name", "a"), object.getClass()).parse();
+  }
+
+  @Test
+  public void testHelpChoices() {
+    final Object object =
+        new Object() {
+          @Option(name = "--level", type = String.class, help = "Log level.", choices = {"a", "b"})
+          private Object options;
+        };
+    assertEquals(
+        "  --level String  Log level. One of: a, b." + System.lineSeparator(),
+        Scythe.cli(args(), object.getClass()).help());
+  }
+
+  // ---------------------------------------------
+  // Test enum options.
+  // ---------------------------------------------
+  private enum Route {
+    @Alias({"fast", "express"})
+    FAST_PATH,
+    SLOW_PATH,
+    slow_path_v2
+  }
+
+  private enum Clash {
+    on,
+    ON
+  }
+
+  private static class Enums {
+    @Option(name = "--route", type = Route.class, required = false)
+    @Option(name = "--via", type = Route.class, multiple = true, required = false)
+    @Option(name = "--avoid", type = Route.class, multiple = true, enumSet = true, required = false)
+    @Option(name = "--clash", type = Clash.class, required = false)
+    private Object options;
+
+    private static final Route route = Route.SLOW_PATH;
+  }
+
+  @Test
+  public void testEnumOptions() {
+    final Map<String, Object> parse =
+        Scythe.cli(
+                args(
+                    "--via", "fast-path", "--via", "EXPRESS", "--via", "slow_path_v2", "--avoid",
+                    "slow-path", "--avoid", "fast", "--avoid", "SLOW_PATH", "--clash", "ON"),
+                Enums.class)
+            .parse();
+    assertEquals(Route.SLOW_PATH, parse.get("--route"));
+    assertEquals(
+        Arrays.asList(Route.FAST_PATH, Route.FAST_PATH, Route.slow_path_v2), parse.get("--via"));
+    assertEquals(EnumSet.of(Route.FAST_PATH, Route.SLOW_PATH), parse.get("--avoid"));
+    assertEquals(Clash.ON, parse.get("--clash"));
+  }
+
+  @Test
+  public void testUnknownEnumValue() {
+    try {
+      Scythe.cli(args("--route", "scenic"), Enums.class).parse();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals(
+          "Unknown value scenic for Route, expected one of FAST_PATH, SLOW_PATH, slow_path_v2",
+          e.getMessage());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAmbiguousEnumValue() {
+    Scythe.cli(args("--clash", "On"), Enums.class).parse();
+  }
+
+  private enum Taken {
+    @Alias("SECOND")
+    FIRST,
+    SECOND
+  }
+
+  @Test
+  public void testEnumAliasOfAnotherConstant() {
+    final Object object =
+        new Object() {
+          @Option(name = "--order", type = Taken.class)
+          private Object options;
+        };
+    try {
+      Scythe.cli(args("--order", "SECOND"), object.getClass()).parse();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Alias SECOND of Taken.FIRST is another constant", e.getMessage());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEnumSetOfNonEnumOption() {
+    final Object object =
+        new Object() {
+          @Option(name = "--name", type = String.class, multiple = true, enumSet = true)
+          private Object options;
+        };
+    Scythe.cli(args("--name", "a"), object.getClass()).parse();
+  }
+
+  // ---------------------------------------------
+  // Test default value suppliers.
+  // ---------------------------------------------
+  private static final AtomicInteger supplied = new AtomicInteger();
+  private static final CyclicBarrier barrier = new CyclicBarrier(2);
+
+  /** Only returns once another supplier is running at the same time. */
+  private static class ConcurrentPort implements Supplier<Integer> {
+    @Override
+    public Integer get() {
+      supplied.incrementAndGet();
+      try {
+        barrier.await(10, TimeUnit.SECONDS);
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+      return 8080;
+    }
+  }
+
+  private static class ConcurrentHost implements Supplier<String> {
+    @Override
+    public String get() {
+      new ConcurrentPort().get();
+      return "localhost";
+    }
+  }
+
+  private static class Failing implements Supplier<String> {
+    @Override
+    public String get() {
+      throw new IllegalStateException("No machine id");
+    }
+  }
+
+  private static class Supplied {
+    @Option(name = "--port", type = Integer.class, defaultSupplier = ConcurrentPort.class)
+    @Option(name = "--host", type = String.class, defaultSupplier = ConcurrentHost.class)
+    @Option(name = "--id", type = String.class, required = false, defaultSupplier = Failing.class)
+    private Object options;
+  }
+
+  @Test
+  public void testDefaultSuppliers() {
+    supplied.set(0);
+    barrier.reset();
+    final Map<String, Object> parse = Scythe.cli(args("--id", "a"), Supplied.class).parse();
+    assertEquals(8080, parse.get("--port"));
+    assertEquals("localhost", parse.get("--host"));
+    assertEquals("a", parse.get("--id"));
+    assertEquals(2, supplied.get());
+  }
+
+  @Test
+  public void testDefaultSuppliersOnlyCalledWhenAbsent() {
+    supplied.set(0);
+    final Map<String, Object> parse =
+        Scythe.cli(args("--port", "1", "--host", "h", "--id", "a"), Supplied.class).parse();
+    assertEquals(1, parse.get("--port"));
+    assertEquals(0, supplied.get());
+  }
+
+  /** Supplies a different value on every call. */
+  private static class Counting implements Supplier<String> {
+    @Override
+    public String get() {
+      return "machine-" + supplied.incrementAndGet();
+    }
+  }
+
+  private static class SuppliedReference {
+    @Option(name = "--id", type = String.class, defaultSupplier = Counting.class)
+    @Option(name = "--name")
+    private Object options;
+  }
+
+  @Test
+  public void testDefaultSupplierCalledOnceWhenReferenced() {
+    supplied.set(0);
+    final Map<String, Object> parse =
+        Scythe.cli(args("--name", "${opt:--id}/a"), SuppliedReference.class)
+            .environment(new HashMap<>())
+            .interpolate()
+            .parse();
+    assertEquals("machine-1", parse.get("--id"));
+    assertEquals("machine-1/a", parse.get("--name"));
+    assertEquals(1, supplied.get());
+  }
+
+  @Test
+  public void testDefaultSupplierFails() {
+    try {
+      Scythe.cli(args("--port", "1", "--host", "h"), Supplied.class).parse();
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("No machine id", e.getMessage());
+    }
+  }
 }
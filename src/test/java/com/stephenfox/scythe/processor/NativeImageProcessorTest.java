@@ -0,0 +1,207 @@
+package com.stephenfox.scythe.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNotNull;
+
+import com.stephenfox.scythe.annotation.Option;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Compiles small option classes with the {@link NativeImageProcessor} and checks the reflection
+ * metadata written for them.
+ */
+public class NativeImageProcessorTest {
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testFieldOptions() throws Exception {
+    final String config =
+        compile(
+            "app",
+            "package demo;",
+            "import com.stephenfox.scythe.annotation.Option;",
+            "public class Main {",
+            "  @Option(name = \"--port\", type = Integer.class)",
+            "  @Option(name = \"--host\", type = Host.class)",
+            "  private Object options;",
+            "  private static final int port = 80;",
+            "  public static class Host {",
+            "    public Host(String host) {}",
+            "  }",
+            "}");
+
+    assertEquals(
+        "[\n"
+            + "  {\n"
+            + "    \"name\": \"demo.Main\",\n"
+            + "    \"allDeclaredFields\": true,\n"
+            + "    \"allDeclaredMethods\": true\n"
+            + "  },\n"
+            + "  {\n"
+            + "    \"name\": \"demo.Main$Host\",\n"
+            + "    \"methods\": [{\"name\": \"<init>\", "
+            + "\"parameterTypes\": [\"java.lang.String\"]}]\n"
+            + "  }\n"
+            + "]\n",
+        config);
+  }
+
+  @Test
+  public void testMethodOptions() throws Exception {
+    final String config =
+        compile(
+            "app",
+            "package demo;",
+            "import com.stephenfox.scythe.annotation.Option;",
+            "import java.nio.file.Path;",
+            "public class Main {",
+            "  @Option(name = \"--in\", type = Path.class)",
+            "  @Option(name = \"--retries\", type = Long.class)",
+            "  static void run(Path in, Long retries) {}",
+            "}");
+
+    assertTrue(config.contains("\"name\": \"demo.Main\""));
+    assertTrue(config.contains("\"allDeclaredMethods\": true"));
+    assertFalse(config.contains("java.nio.file.Path\""));
+    assertFalse(config.contains("java.lang.Long"));
+  }
+
+  @Test
+  public void testEnumOptions() throws Exception {
+    final String config =
+        compile(
+            "app",
+            "package demo;",
+            "import com.stephenfox.scythe.annotation.Option;",
+            "public class Main {",
+            "  @Option(name = \"--level\", type = Level.class)",
+            "  private Object options;",
+            "  enum Level { DEBUG, INFO }",
+            "}");
+
+    assertTrue(
+        config.contains(
+            "\"name\": \"demo.Main$Level\",\n"
+                + "    \"allPublicFields\": true,\n"
+                + "    \"methods\": [{\"name\": \"values\", \"parameterTypes\": []}]"));
+  }
+
+  @Test
+  public void testDefaultSupplier() throws Exception {
+    final String config =
+        compile(
+            "app",
+            "package demo;",
+            "import com.stephenfox.scythe.annotation.Option;",
+            "import java.util.function.Supplier;",
+            "public class Main {",
+            "  @Option(name = \"--threads\", type = Integer.class, defaultSupplier = Cpus.class)",
+            "  private Object options;",
+            "  static class Cpus implements Supplier<Integer> {",
+            "    public Integer get() { return 1; }",
+            "  }",
+            "}");
+
+    assertTrue(
+        config.contains(
+            "\"name\": \"demo.Main$Cpus\",\n"
+                + "    \"methods\": [{\"name\": \"<init>\", \"parameterTypes\": []}]"));
+    assertFalse(config.contains("NoDefault"));
+  }
+
+  @Test
+  public void testOptionTypeAndDefaultSupplier() throws Exception {
+    final String config =
+        compile(
+            "app",
+            "package demo;",
+            "import com.stephenfox.scythe.annotation.Option;",
+            "import java.util.function.Supplier;",
+            "public class Main {",
+            "  @Option(name = \"--host\", type = Host.class, defaultSupplier = Host.class)",
+            "  private Object options;",
+            "  public static class Host implements Supplier<Host> {",
+            "    public Host() {}",
+            "    public Host(String host) {}",
+            "    public Host get() { return this; }",
+            "  }",
+            "}");
+
+    assertTrue(
+        config.contains(
+            "\"name\": \"demo.Main$Host\",\n"
+                + "    \"methods\": [{\"name\": \"<init>\", "
+                + "\"parameterTypes\": [\"java.lang.String\"]}, "
+                + "{\"name\": \"<init>\", \"parameterTypes\": []}]\n"));
+    assertEquals(config.indexOf("\"methods\""), config.lastIndexOf("\"methods\""));
+  }
+
+  @Test
+  public void testProjectOption() throws Exception {
+    final String config =
+        compile(
+            "server",
+            "package demo;",
+            "import com.stephenfox.scythe.annotation.Option;",
+            "public class Main {",
+            "  @Option(name = \"--verbose\", isFlag = true)",
+            "  private Object options;",
+            "}");
+
+    assertTrue(config.contains("\"name\": \"demo.Main\""));
+  }
+
+  private String compile(String project, String... lines)
+      throws IOException, URISyntaxException {
+    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    assumeNotNull(compiler);
+
+    final File sources = temporaryFolder.newFolder();
+    final File classes = temporaryFolder.newFolder();
+    final Path source = sources.toPath().resolve("demo").resolve("Main.java");
+    Files.createDirectories(source.getParent());
+    Files.write(source, Arrays.asList(lines), StandardCharsets.UTF_8);
+
+    final String classpath =
+        new File(Option.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+            .getPath();
+    final int result =
+        compiler.run(
+            null,
+            null,
+            null,
+            "-proc:only",
+            "-processor",
+            NativeImageProcessor.class.getName(),
+            "-A" + NativeImageProcessor.PROJECT_OPTION + "=" + project,
+            "-classpath",
+            classpath,
+            "-d",
+            classes.getPath(),
+            source.toString());
+    assertEquals(0, result);
+
+    final Path config =
+        classes
+            .toPath()
+            .resolve("META-INF/native-image/scythe/" + project + "/reflect-config.json");
+    return new String(Files.readAllBytes(config), StandardCharsets.UTF_8);
+  }
+}